@@ -0,0 +1,106 @@
+package edu.kse.easycaller;
+
+import android.app.Instrumentation;
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from {@link MainActivity#onCreate} to the first contact shown, over a fixed
+ * number of launches with a fixed number of seeded contacts.<br>
+ * Launches after the first one reuse the process, so the median tracks activity startup while
+ * the first launch is reported apart as the closest to a cold start. Times are only logged, as
+ * they depend on the device.<br>
+ * The seeded users are purged afterwards, with their phone numbers and change log rows, so the
+ * app database is left as it was.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmarkTest {
+
+    private static final String TAG = "StartupBenchmark";
+
+    private static final int LAUNCH_COUNT = 10;
+    private static final int SEEDED_USER_COUNT = 500;
+
+    private final List<Integer> seededUids = new ArrayList<>();
+
+    @Before
+    public void seedUsers() {
+        UserDao userDao = EasyCallerApp.get(InstrumentationRegistry.getTargetContext()).getDatabase().userDao();
+        User[] users = new User[SEEDED_USER_COUNT];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User();
+            users[i].setFirstName("Startup" + i);
+            users[i].setLastName("Benchmark");
+            users[i].setPhoneNumber("+21891" + (1000000 + i));
+        }
+        for (PhoneNumber phoneNumber : userDao.insertAll(users)) {
+            seededUids.add(phoneNumber.getUserId());
+        }
+    }
+
+    @After
+    public void purgeUsers() {
+        if (seededUids.isEmpty()) {
+            return;
+        }
+        StringBuilder uids = new StringBuilder();
+        for (Iterator<Integer> it = seededUids.iterator(); it.hasNext(); ) {
+            uids.append(it.next());
+            if (it.hasNext()) {
+                uids.append(',');
+            }
+        }
+        // Deleted rather than tombstoned, so nothing is left to sync.
+        SupportSQLiteDatabase database = EasyCallerApp.get(InstrumentationRegistry.getTargetContext())
+                                                      .getDatabase().getOpenHelper().getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.execSQL("DELETE FROM phone_number WHERE user_id IN (" + uids + ")");
+            database.execSQL("DELETE FROM user_change WHERE user_id IN (" + uids + ")");
+            database.execSQL("DELETE FROM user WHERE uid IN (" + uids + ")");
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Test
+    public void timeToFirstContact() throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        long[] times = new long[LAUNCH_COUNT];
+        for (int i = 0; i < LAUNCH_COUNT; i++) {
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.setClassName(instrumentation.getTargetContext(), MainActivity.class.getName());
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+
+            MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+            assertTrue("First contact not shown", activity.firstContactLatch.await(10, TimeUnit.SECONDS));
+            times[i] = activity.getTimeToFirstContactMillis();
+
+            activity.finish();
+            instrumentation.waitForIdleSync();
+        }
+
+        long first = times[0];
+        Arrays.sort(times);
+        long median = times[LAUNCH_COUNT / 2];
+        long p90 = times[LAUNCH_COUNT * 9 / 10];
+        Log.i(TAG, "First launch: " + first + " ms, median: " + median + " ms, p90: " + p90 + " ms");
+    }
+}
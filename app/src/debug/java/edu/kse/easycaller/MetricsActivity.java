@@ -0,0 +1,49 @@
+package edu.kse.easycaller;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Debug screen listing every counter and latency histogram of {@link Metrics}.<br>
+ * The metrics are those of the running process, tap the text to refresh them.
+ */
+public class MetricsActivity extends Activity {
+
+    private TextView metricsTV;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        metricsTV = new TextView(this);
+        metricsTV.setPadding(padding, padding, padding, padding);
+        metricsTV.setTypeface(Typeface.MONOSPACE);
+        metricsTV.setTextIsSelectable(true);
+        metricsTV.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                refresh();
+            }
+        });
+
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(metricsTV);
+        setContentView(scrollView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void refresh() {
+        String snapshot = Metrics.snapshot();
+        metricsTV.setText(snapshot.isEmpty() ? "No metrics recorded yet" : snapshot);
+    }
+}
@@ -0,0 +1,95 @@
+package edu.kse.easycaller;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads users from the system address book, one contact at a time.<br>
+ * A single cursor over the name, phone and organization data rows, ordered by contact, is walked
+ * forward and rows are folded into users, so the whole address book is never held in memory.
+ * The query only runs on the first {@link #next()}, on the importing thread.<br>
+ * Requires the READ_CONTACTS permission.
+ */
+public class AddressBookSource implements ContactSource {
+
+    private static final String[] PROJECTION = {
+            Data.CONTACT_ID, Data.MIMETYPE, Data.DATA1, Data.DATA2, Data.DATA3
+    };
+
+    private static final String SELECTION = Data.MIMETYPE + " IN (?, ?, ?)";
+
+    private static final String[] SELECTION_ARGS = {
+            StructuredName.CONTENT_ITEM_TYPE, Phone.CONTENT_ITEM_TYPE, Organization.CONTENT_ITEM_TYPE
+    };
+
+    private final ContentResolver resolver;
+    private Cursor cursor;
+
+    // Whether the cursor is positioned on a row not consumed yet.
+    private boolean hasRow;
+
+    public AddressBookSource(@NonNull ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public UserWithPhoneNumbers next() throws IOException {
+        if (cursor == null) {
+            try {
+                cursor = resolver.query(ContactsContract.Data.CONTENT_URI, PROJECTION, SELECTION, SELECTION_ARGS,
+                                        Data.CONTACT_ID);
+            } catch (SecurityException e) {
+                // The permission was revoked since the import was started.
+                throw new IOException(e);
+            }
+            if (cursor == null) {
+                return null;
+            }
+            hasRow = cursor.moveToFirst();
+        }
+        if (!hasRow) {
+            return null;
+        }
+
+        User user = new User();
+        List<String> numbers = new ArrayList<>();
+        long contactId = cursor.getLong(0);
+        do {
+            String mimeType = cursor.getString(1);
+            if (StructuredName.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                user.setFirstName(cursor.getString(3));
+                user.setLastName(cursor.getString(4));
+                if (user.getFirstName() == null && user.getLastName() == null) {
+                    user.setFirstName(cursor.getString(2));
+                }
+            } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                String number = cursor.getString(2);
+                if (number != null) {
+                    numbers.add(number);
+                }
+            } else if (Organization.CONTENT_ITEM_TYPE.equals(mimeType)) {
+                user.setCompany(cursor.getString(2));
+            }
+            hasRow = cursor.moveToNext();
+        } while (hasRow && cursor.getLong(0) == contactId);
+
+        return UserWithPhoneNumbers.of(user, numbers);
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+}
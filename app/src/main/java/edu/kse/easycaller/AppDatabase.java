@@ -1,9 +1,175 @@
 package edu.kse.easycaller;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
+import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
 
-@Database(entities = {User.class}, version = 1)
+@Database(entities = {User.class, PhoneNumber.class, UserChange.class, SyncState.class}, version = 7)
 public abstract class AppDatabase extends RoomDatabase {
+
+    static final String DATABASE_NAME = "Users.db";
+
     public abstract UserDao userDao();
-}
\ No newline at end of file
+
+    /**
+     * Create a builder of the app database with its callback, every migration and the
+     * {@link DatabaseProfile#DEFAULT default profile}.
+     */
+    static Builder<AppDatabase> builder(@NonNull Context context) {
+        return builder(context, DatabaseProfile.DEFAULT);
+    }
+
+    /**
+     * Create a builder of the app database with its callback, every migration and the given
+     * profile.
+     */
+    static Builder<AppDatabase> builder(@NonNull Context context, @NonNull DatabaseProfile profile) {
+        Builder<AppDatabase> builder = Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, DATABASE_NAME)
+                                           .addCallback(CALLBACK)
+                                           .addMigrations(MIGRATIONS);
+        profile.apply(builder);
+        return builder;
+    }
+
+    /**
+     * Create the tables Room does not manage when the database is created.
+     */
+    static final Callback CALLBACK = new Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase database) {
+            ContactSearch.createFtsTable(database);
+            createSortIndexes(database);
+        }
+    };
+
+    /**
+     * (Re)create the indexes the sort orders of the pager are read from, see {@link SortOrder}.
+     * <br>
+     * Room can not declare a collation on an index, so the indexes declared on {@link User} are
+     * replaced under the same names by case-insensitive ones matching the ORDER BY of the
+     * queries.
+     */
+    static void createSortIndexes(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("DROP INDEX IF EXISTS index_User_last_name_first_name");
+        database.execSQL("DROP INDEX IF EXISTS index_User_first_name_last_name");
+        database.execSQL("DROP INDEX IF EXISTS index_User_company_last_name_first_name");
+        database.execSQL("CREATE INDEX index_User_last_name_first_name "
+                         + "ON User (last_name COLLATE NOCASE, first_name COLLATE NOCASE)");
+        database.execSQL("CREATE INDEX index_User_first_name_last_name "
+                         + "ON User (first_name COLLATE NOCASE, last_name COLLATE NOCASE)");
+        database.execSQL("CREATE INDEX index_User_company_last_name_first_name "
+                         + "ON User (company COLLATE NOCASE, last_name COLLATE NOCASE, first_name COLLATE NOCASE)");
+    }
+
+    /**
+     * Add the indexed phone_key column and fill it from the existing phone numbers.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE User ADD COLUMN phone_key TEXT");
+            database.execSQL("CREATE INDEX index_User_phone_key ON User (phone_key)");
+
+            Cursor cursor = database.query("SELECT uid, phone_number FROM User WHERE phone_number IS NOT NULL");
+            try {
+                while (cursor.moveToNext()) {
+                    String phoneKey = PhoneNumbers.normalize(cursor.getString(1));
+                    if (phoneKey != null) {
+                        database.execSQL("UPDATE User SET phone_key = ? WHERE uid = ?",
+                                         new Object[]{phoneKey, cursor.getInt(0)});
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    };
+
+    /**
+     * Add the user_fts full-text table used by {@link ContactSearch}.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            ContactSearch.createFtsTable(database);
+        }
+    };
+
+    /**
+     * Move phone numbers to the phone_number table, so a user can own more than one.<br>
+     * The number of every user is copied as its first number and stays its primary number.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS phone_number ("
+                             + "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                             + "user_id INTEGER NOT NULL, "
+                             + "number TEXT, "
+                             + "phone_key TEXT, "
+                             + "FOREIGN KEY(user_id) REFERENCES User(uid) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX index_phone_number_user_id ON phone_number (user_id)");
+            database.execSQL("CREATE INDEX index_phone_number_phone_key ON phone_number (phone_key)");
+            database.execSQL("INSERT INTO phone_number (user_id, number, phone_key) "
+                             + "SELECT uid, phone_number, phone_key FROM User WHERE phone_number IS NOT NULL");
+        }
+    };
+
+    /**
+     * Index the name and phone number columns of the User table.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_User_first_name ON User (first_name)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_User_last_name ON User (last_name)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_User_phone_number ON User (phone_number)");
+        }
+    };
+
+    /**
+     * Add the remote id and tombstone columns of User, the user_change log and the sync_state
+     * cursors used by {@link SyncEngine}.<br>
+     * Every existing user is logged as a change, so the contacts created before sync get pushed.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE User ADD COLUMN remote_id TEXT");
+            database.execSQL("ALTER TABLE User ADD COLUMN deleted INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE User SET remote_id = lower(hex(randomblob(16)))");
+            database.execSQL("CREATE UNIQUE INDEX index_User_remote_id ON User (remote_id)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS user_change ("
+                             + "version INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                             + "user_id INTEGER NOT NULL)");
+            database.execSQL("CREATE INDEX index_user_change_user_id ON user_change (user_id)");
+            database.execSQL("INSERT INTO user_change (user_id) SELECT uid FROM User");
+            database.execSQL("CREATE TABLE IF NOT EXISTS sync_state ("
+                             + "name TEXT NOT NULL, "
+                             + "value INTEGER NOT NULL, "
+                             + "PRIMARY KEY(name))");
+        }
+    };
+
+    /**
+     * Replace the first and last name indexes with the composite indexes the sort orders of the
+     * pager are read from, see {@link SortOrder}.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("DROP INDEX IF EXISTS index_User_first_name");
+            database.execSQL("DROP INDEX IF EXISTS index_User_last_name");
+            createSortIndexes(database);
+        }
+    };
+
+    // Every migration, in version order.
+    static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+                                           MIGRATION_6_7};
+}
@@ -0,0 +1,242 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Chunked archive format of {@link ContactBackup}.<br>
+ * An archive is the magic number and format version, followed by chunks of at most
+ * {@link #MAX_CHUNK_SIZE} bytes, each with a header holding its type, compression method, raw and
+ * stored lengths and the CRC32 of its raw bytes, and ends with an {@link #TYPE_END} chunk. Chunks
+ * are written and read one at a time through reused buffers, so memory use does not depend on the
+ * size of the archive.
+ */
+final class BackupArchive {
+
+    static final int MAGIC = 0x4543424b; // "ECBK"
+    static final int FORMAT_VERSION = 1;
+
+    // Chunks are flushed once their raw content reaches this size.
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // Largest raw or stored chunk accepted when reading, to reject corrupted lengths early.
+    static final int MAX_CHUNK_SIZE = 4 * CHUNK_SIZE;
+
+    static final byte TYPE_USERS = 1;
+    static final byte TYPE_PICTURE_START = 2;
+    static final byte TYPE_PICTURE_DATA = 3;
+    static final byte TYPE_PICTURE_END = 4;
+    static final byte TYPE_END = 5;
+
+    private static final byte METHOD_STORED = 0;
+    private static final byte METHOD_DEFLATE = 1;
+
+    // type, method, raw length, stored length, crc
+    private static final int HEADER_SIZE = 1 + 1 + 4 + 4 + 4;
+
+    private BackupArchive() {
+    }
+
+    /**
+     * Growable byte buffer giving access to its array, to write chunks without copying them.
+     */
+    static final class ChunkBuffer extends ByteArrayOutputStream {
+
+        ChunkBuffer() {
+            super(CHUNK_SIZE + CHUNK_SIZE / 4);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    static final class Writer {
+
+        private final WritableByteChannel channel;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private byte[] compressed = new byte[CHUNK_SIZE + CHUNK_SIZE / 4];
+
+        Writer(@NonNull WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            ByteBuffer start = ByteBuffer.allocate(8);
+            start.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            writeFully(start);
+        }
+
+        /**
+         * Write a chunk, deflated if asked and if it makes it smaller.
+         */
+        void writeChunk(byte type, byte[] data, int length, boolean compress) throws IOException {
+            if (length > MAX_CHUNK_SIZE) {
+                throw new IOException("Chunk of " + length + " bytes is too large");
+            }
+            crc.reset();
+            crc.update(data, 0, length);
+
+            byte method = METHOD_STORED;
+            byte[] payload = data;
+            int payloadLength = length;
+            if (compress && length > 0) {
+                int deflated = deflate(data, length);
+                if (deflated < length) {
+                    method = METHOD_DEFLATE;
+                    payload = compressed;
+                    payloadLength = deflated;
+                }
+            }
+
+            header.clear();
+            header.put(type).put(method).putInt(length).putInt(payloadLength).putInt((int) crc.getValue());
+            header.flip();
+            writeFully(header);
+            writeFully(ByteBuffer.wrap(payload, 0, payloadLength));
+        }
+
+        private int deflate(byte[] data, int length) {
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int deflated = 0;
+            while (!deflater.finished()) {
+                if (deflated == compressed.length) {
+                    byte[] larger = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, larger, 0, deflated);
+                    compressed = larger;
+                }
+                deflated += deflater.deflate(compressed, deflated, compressed.length - deflated);
+            }
+            return deflated;
+        }
+
+        /**
+         * Write the end chunk and release the deflater, the channel is left open.
+         */
+        void finish() throws IOException {
+            writeChunk(TYPE_END, new byte[0], 0, false);
+            deflater.end();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    static final class Reader {
+
+        private final ReadableByteChannel channel;
+        private final Inflater inflater = new Inflater();
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private byte[] stored = new byte[CHUNK_SIZE];
+
+        // Type and raw content of the current chunk.
+        byte type;
+        byte[] data = new byte[CHUNK_SIZE];
+        int length;
+
+        Reader(@NonNull ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            ByteBuffer start = ByteBuffer.allocate(8);
+            readFully(start);
+            start.flip();
+            if (start.getInt() != MAGIC) {
+                throw new IOException("Not a backup archive");
+            }
+            int version = start.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported backup version " + version);
+            }
+        }
+
+        /**
+         * Read the next chunk into {@link #type}, {@link #data} and {@link #length}.
+         *
+         * @return false once the end chunk has been read.
+         */
+        boolean next() throws IOException {
+            header.clear();
+            readFully(header);
+            header.flip();
+            type = header.get();
+            byte method = header.get();
+            length = header.getInt();
+            int storedLength = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length < 0 || length > MAX_CHUNK_SIZE || storedLength < 0 || storedLength > MAX_CHUNK_SIZE) {
+                throw new IOException("Corrupted chunk header");
+            }
+
+            if (data.length < length) {
+                data = new byte[length];
+            }
+            if (method == METHOD_STORED) {
+                if (storedLength != length) {
+                    throw new IOException("Corrupted chunk header");
+                }
+                readFully(ByteBuffer.wrap(data, 0, length));
+            } else if (method == METHOD_DEFLATE) {
+                if (stored.length < storedLength) {
+                    stored = new byte[storedLength];
+                }
+                readFully(ByteBuffer.wrap(stored, 0, storedLength));
+                inflate(storedLength);
+            } else {
+                throw new IOException("Unknown compression method " + method);
+            }
+
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Checksum mismatch in chunk of type " + type);
+            }
+            if (type == TYPE_END) {
+                inflater.end();
+                return false;
+            }
+            return true;
+        }
+
+        private void inflate(int storedLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLength);
+            try {
+                int inflated = 0;
+                while (inflated < length && !inflater.finished()) {
+                    int count = inflater.inflate(data, inflated, length - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != length) {
+                    throw new IOException("Corrupted compressed chunk");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted compressed chunk", e);
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated backup archive");
+                }
+            }
+        }
+    }
+}
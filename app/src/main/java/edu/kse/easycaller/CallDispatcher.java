@@ -0,0 +1,167 @@
+package edu.kse.easycaller;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Places calls to the user shown on the visible pager page.<br>
+ * The call intent is built as soon as a page is shown, and the call permission is checked once
+ * per resume instead of on every tap, so dialing only has to start the prepared intent. A tap
+ * while the user is still loading is kept and dialed as soon as its number arrives.<br>
+ * All methods must be called from the main thread.
+ */
+public class CallDispatcher {
+
+    private static final String TAG = "CallDispatcher";
+
+    static final int CALL_PERMISSION_REQUEST_CODE = 1;
+
+    private static final int NO_USER = -1;
+
+    private static final Metrics.Histogram DIAL_LATENCY = Metrics.histogram("call.dial");
+    private static final Metrics.Counter NO_NUMBER = Metrics.counter("call.noNumber");
+
+    private final Activity activity;
+    private final UserPagingSource pagingSource;
+
+    // User of the visible page and its prepared call intent, null while the user is loading.
+    private int currentUid = NO_USER;
+    private Intent callIntent;
+    private boolean userLoading;
+
+    // Set when a tap came while the user of the visible page was loading.
+    private boolean dialPending;
+
+    private boolean permissionGranted;
+
+    // Set when a tap is waiting for the permission to be granted.
+    private boolean callPending;
+
+    CallDispatcher(@NonNull Activity activity, @NonNull UserPagingSource pagingSource) {
+        this.activity = activity;
+        this.pagingSource = pagingSource;
+        refreshPermission();
+    }
+
+    /**
+     * Check the call permission again, it may have been changed from the settings while the
+     * activity was paused.
+     */
+    void refreshPermission() {
+        permissionGranted = ContextCompat.checkSelfPermission(activity, Manifest.permission.CALL_PHONE)
+                            == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Prepare the call of the user at the given position, called whenever the visible page
+     * changes.
+     */
+    void onPageShown(int position) {
+        prepareCall(position, false);
+    }
+
+    /**
+     * Prepare the call again after the user table changed, the visible user may have been edited.
+     */
+    void onUsersChanged(int position) {
+        prepareCall(position, true);
+    }
+
+    private void prepareCall(int position, boolean reload) {
+        if (position < 0 || position >= pagingSource.size()) {
+            currentUid = NO_USER;
+            callIntent = null;
+            userLoading = false;
+            dialPending = false;
+            return;
+        }
+
+        final int uid = pagingSource.getUid(position);
+        if (!reload && uid == currentUid && (callIntent != null || userLoading)) {
+            return;
+        }
+        if (uid != currentUid) {
+            // The tap was meant for the page left.
+            dialPending = false;
+        }
+        currentUid = uid;
+        callIntent = null;
+        userLoading = true;
+        pagingSource.getUser(uid, new UserRepository.Callback<User>() {
+            @Override
+            public void onResult(User user) {
+                if (uid != currentUid) {
+                    return;
+                }
+                callIntent = buildCallIntent(user);
+                userLoading = false;
+                if (dialPending) {
+                    dialPending = false;
+                    startCall();
+                }
+            }
+        });
+    }
+
+    /**
+     * Call the user of the visible page, asking for the call permission first if needed.
+     */
+    void dial() {
+        if (!permissionGranted) {
+            callPending = true;
+            ActivityCompat.requestPermissions(activity, new String[]{Manifest.permission.CALL_PHONE},
+                                              CALL_PERMISSION_REQUEST_CODE);
+            return;
+        }
+        startCall();
+    }
+
+    void onPermissionResult(boolean granted) {
+        permissionGranted = granted;
+        if (granted && callPending) {
+            startCall();
+        }
+        callPending = false;
+    }
+
+    @SuppressLint("MissingPermission")
+    private void startCall() {
+        if (callIntent == null) {
+            if (userLoading) {
+                dialPending = true;
+                return;
+            }
+            NO_NUMBER.increment();
+            Log.v(TAG, "No number to call for user " + currentUid);
+            if (currentUid != NO_USER) {
+                Toast.makeText(activity, R.string.no_number_to_call, Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        activity.startActivity(callIntent);
+        DIAL_LATENCY.recordSince(start);
+    }
+
+    @Nullable
+    static Intent buildCallIntent(@Nullable User user) {
+        if (user == null) {
+            return null;
+        }
+        String phoneNumber = user.getPhoneNumber();
+        if (phoneNumber == null || phoneNumber.isEmpty()) {
+            return null;
+        }
+        return new Intent(Intent.ACTION_CALL, Uri.fromParts("tel", phoneNumber, null));
+    }
+}
@@ -0,0 +1,145 @@
+package edu.kse.easycaller;
+
+import android.database.Cursor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory index of every normalized phone number to the id of the user owning it, used to
+ * identify incoming callers without touching the database.<br>
+ * The index is loaded once in the background on the first lookup, or earlier by
+ * {@link #warmUp()}, then kept up to date by the repository and the importer as numbers are
+ * inserted and deleted.
+ */
+public class CallerIdIndex {
+
+    private static final String TAG = "CallerIdIndex";
+
+    private final AppDatabase database;
+    private final PhoneKeyIndex index = new PhoneKeyIndex(1024);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    /**
+     * Create the index of the given database, use {@link EasyCallerApp#getCallerIdIndex()} to get
+     * the shared instance.
+     */
+    CallerIdIndex(@NonNull AppDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Start loading the index in the background, if it is not loading already.
+     */
+    public void warmUp() {
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                load();
+            }
+        }, "caller-id-index");
+        thread.start();
+    }
+
+    private void load() {
+        long start = SystemClock.elapsedRealtime();
+        TraceCompat.beginSection("CallerIdIndex.load");
+        try {
+            Cursor cursor = database.userDao().getAllPhoneKeys();
+            try {
+                synchronized (index) {
+                    while (cursor.moveToNext()) {
+                        index.put(PhoneNumbers.toIndexKey(cursor.getString(0)), cursor.getInt(1));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            loaded.countDown();
+            TraceCompat.endSection();
+        }
+        Log.i(TAG, "Loaded " + index.size() + " numbers in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    /**
+     * Find the user owning the given number, waiting at most the given time for the index to load.
+     *
+     * @return the user id, or {@link PhoneKeyIndex#NO_USER} if the number is unknown or the index
+     * is not loaded in time.
+     */
+    public int lookup(@Nullable String phoneNumber, long timeoutMillis) {
+        long key = PhoneNumbers.toIndexKey(PhoneNumbers.normalize(phoneNumber));
+        if (key == 0) {
+            return PhoneKeyIndex.NO_USER;
+        }
+        warmUp();
+        try {
+            if (!loaded.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return PhoneKeyIndex.NO_USER;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PhoneKeyIndex.NO_USER;
+        }
+        synchronized (index) {
+            return index.get(key);
+        }
+    }
+
+    /**
+     * Add inserted numbers, their user ids must be set.
+     */
+    void addAll(@NonNull Collection<PhoneNumber> phoneNumbers) {
+        synchronized (index) {
+            for (PhoneNumber phoneNumber : phoneNumbers) {
+                index.put(PhoneNumbers.toIndexKey(phoneNumber.getPhoneKey()), phoneNumber.getUserId());
+            }
+        }
+    }
+
+    /**
+     * Remove the numbers of a deleted user, once its numbers are deleted from the database. A
+     * number shared with another user is given to that user.
+     */
+    void removeAll(@NonNull List<String> phoneKeys, int uid) {
+        List<String> removedKeys = new ArrayList<>(phoneKeys.size());
+        synchronized (index) {
+            for (String phoneKey : phoneKeys) {
+                long key = PhoneNumbers.toIndexKey(phoneKey);
+                if (index.get(key) == uid) {
+                    index.remove(key, uid);
+                    removedKeys.add(phoneKey);
+                }
+            }
+        }
+
+        for (String phoneKey : removedKeys) {
+            User owner = database.userDao().getByPhoneKey(phoneKey);
+            if (owner == null) {
+                continue;
+            }
+            long key = PhoneNumbers.toIndexKey(phoneKey);
+            synchronized (index) {
+                if (index.get(key) == PhoneKeyIndex.NO_USER) {
+                    index.put(key, owner.getUid());
+                }
+            }
+        }
+    }
+}
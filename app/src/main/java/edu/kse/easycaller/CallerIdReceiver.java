@@ -0,0 +1,66 @@
+package edu.kse.easycaller;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.TelephonyManager;
+import android.widget.Toast;
+
+/**
+ * Shows the name of the caller when the phone starts ringing.<br>
+ * The number is resolved through the in-memory {@link CallerIdIndex}, then only the primary key
+ * lookup of the user touches the database, so the name shows up during the first ring.
+ */
+public class CallerIdReceiver extends BroadcastReceiver {
+
+    // Longest time to wait for the index on a cold start.
+    private static final long INDEX_TIMEOUT_MILLIS = 1500;
+
+    // Time from the ringing broadcast to the caller's user, index wait and database lookup included.
+    private static final Metrics.Histogram IDENTIFY_LATENCY = Metrics.histogram("callerId.identify");
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if (!TelephonyManager.EXTRA_STATE_RINGING.equals(intent.getStringExtra(TelephonyManager.EXTRA_STATE))) {
+            return;
+        }
+        final String phoneNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
+        if (phoneNumber == null) {
+            return;
+        }
+
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    identify(context.getApplicationContext(), phoneNumber);
+                } finally {
+                    result.finish();
+                }
+            }
+        }, "caller-id").start();
+    }
+
+    private static void identify(final Context context, String phoneNumber) {
+        long start = System.nanoTime();
+        EasyCallerApp app = EasyCallerApp.get(context);
+        int uid = app.getCallerIdIndex().lookup(phoneNumber, INDEX_TIMEOUT_MILLIS);
+        final User user = uid != PhoneKeyIndex.NO_USER ? app.getDatabase().userDao().getById(uid) : null;
+        IDENTIFY_LATENCY.recordSince(start);
+        if (user == null) {
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                String name = (user.getFirstName() != null ? user.getFirstName() : "") + " "
+                              + (user.getLastName() != null ? user.getLastName() : "");
+                Toast.makeText(context, context.getString(R.string.incoming_call, name.trim()),
+                               Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
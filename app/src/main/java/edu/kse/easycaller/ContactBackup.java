@@ -0,0 +1,333 @@
+package edu.kse.easycaller;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Backs up users and their pictures into a single {@link BackupArchive} and restores them.<br>
+ * Users are read through a cursor and written in compressed chunks, each followed by the pictures
+ * of its users, streamed from disk in chunks. Restores are incremental: users whose remote id is
+ * already in the table and pictures already stored under the same content name are skipped, and
+ * new users are inserted in batches.<br>
+ * Both directions block, they must be run off the main thread.
+ */
+public class ContactBackup {
+
+    private static final String TAG = "ContactBackup";
+
+    // Number of users inserted per transaction when restoring.
+    static final int RESTORE_BATCH_SIZE = 500;
+
+    private final UserDao userDao;
+    private final File picturesDir;
+    private final CallerIdIndex callerIdIndex;
+
+    /**
+     * Counts of the users and pictures moved by one backup or restore.
+     */
+    public static class Stats {
+        public int users;
+        public int pictures;
+        public int skippedUsers;
+        public int skippedPictures;
+
+        @Override
+        public String toString() {
+            return users + " users, " + pictures + " pictures, "
+                   + skippedUsers + " users and " + skippedPictures + " pictures skipped";
+        }
+    }
+
+    ContactBackup(@NonNull AppDatabase database, @NonNull File picturesDir, @NonNull CallerIdIndex callerIdIndex) {
+        this.userDao = database.userDao();
+        this.picturesDir = picturesDir;
+        this.callerIdIndex = callerIdIndex;
+    }
+
+    /**
+     * Write every user and the pictures they refer to into the channel, which is left open.
+     */
+    public Stats backup(@NonNull WritableByteChannel channel) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        BackupArchive.Writer writer = new BackupArchive.Writer(channel);
+        BackupArchive.ChunkBuffer chunk = new BackupArchive.ChunkBuffer();
+        DataOutputStream output = new DataOutputStream(chunk);
+        byte[] pictureBuffer = new byte[BackupArchive.CHUNK_SIZE];
+
+        // Pictures are shared by content, each is written once.
+        Set<String> writtenPictures = new HashSet<>();
+        List<File> pendingPictures = new ArrayList<>();
+        List<String> numbers = new ArrayList<>();
+
+        Cursor users = userDao.getBackupUsers();
+        Cursor phoneNumbers = userDao.getBackupPhoneNumbers();
+        try {
+            boolean hasNumber = phoneNumbers.moveToNext();
+            while (users.moveToNext()) {
+                int uid = users.getInt(0);
+
+                // Both cursors are in uid order, so numbers are merged in without a lookup.
+                numbers.clear();
+                while (hasNumber && phoneNumbers.getInt(0) <= uid) {
+                    if (phoneNumbers.getInt(0) == uid) {
+                        numbers.add(phoneNumbers.getString(1));
+                    }
+                    hasNumber = phoneNumbers.moveToNext();
+                }
+
+                File picture = getPicture(users.getString(6));
+                writeString(output, users.getString(1));
+                writeString(output, users.getString(2));
+                writeString(output, users.getString(3));
+                writeString(output, users.getString(4));
+                writeString(output, users.getString(5));
+                writeString(output, picture == null ? null : picture.getName());
+                output.writeShort(numbers.size());
+                for (String number : numbers) {
+                    writeString(output, number);
+                }
+                stats.users++;
+
+                if (picture != null && writtenPictures.add(picture.getName())) {
+                    pendingPictures.add(picture);
+                }
+                if (chunk.size() >= BackupArchive.CHUNK_SIZE) {
+                    flushUsers(writer, chunk);
+                    stats.pictures += writePictures(writer, pendingPictures, pictureBuffer);
+                }
+            }
+            flushUsers(writer, chunk);
+            stats.pictures += writePictures(writer, pendingPictures, pictureBuffer);
+        } finally {
+            users.close();
+            phoneNumbers.close();
+        }
+        writer.finish();
+
+        Log.i(TAG, "Backed up " + stats + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return stats;
+    }
+
+    /**
+     * Add the users and pictures of the archive read from the channel that are not here yet.
+     */
+    public Stats restore(@NonNull ReadableByteChannel channel) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        BackupArchive.Reader reader = new BackupArchive.Reader(channel);
+        List<UserWithPhoneNumbers> batch = new ArrayList<>(RESTORE_BATCH_SIZE);
+        picturesDir.mkdirs();
+
+        File picture = null;
+        File tempPicture = null;
+        FileChannel pictureChannel = null;
+        try {
+            while (reader.next()) {
+                switch (reader.type) {
+                    case BackupArchive.TYPE_USERS:
+                        DataInputStream input = new DataInputStream(
+                                new ByteArrayInputStream(reader.data, 0, reader.length));
+                        while (input.available() > 0) {
+                            batch.add(readUser(input));
+                            if (batch.size() >= RESTORE_BATCH_SIZE) {
+                                insertBatch(batch, stats);
+                            }
+                        }
+                        break;
+                    case BackupArchive.TYPE_PICTURE_START:
+                        picture = getRestoredPicture(new String(reader.data, 0, reader.length, "UTF-8"));
+                        if (picture.exists()) {
+                            stats.skippedPictures++;
+                        } else {
+                            tempPicture = new File(picturesDir, "tmp-" + picture.getName());
+                            pictureChannel = new FileOutputStream(tempPicture).getChannel();
+                        }
+                        break;
+                    case BackupArchive.TYPE_PICTURE_DATA:
+                        if (pictureChannel != null) {
+                            ByteBuffer buffer = ByteBuffer.wrap(reader.data, 0, reader.length);
+                            while (buffer.hasRemaining()) {
+                                pictureChannel.write(buffer);
+                            }
+                        }
+                        break;
+                    case BackupArchive.TYPE_PICTURE_END:
+                        if (pictureChannel != null) {
+                            pictureChannel.close();
+                            pictureChannel = null;
+                            if (!tempPicture.renameTo(picture)) {
+                                throw new IOException("Unable to move " + tempPicture + " to " + picture);
+                            }
+                            tempPicture = null;
+                            stats.pictures++;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown chunk type " + reader.type);
+                }
+            }
+            insertBatch(batch, stats);
+        } finally {
+            if (pictureChannel != null) {
+                pictureChannel.close();
+            }
+            if (tempPicture != null) {
+                tempPicture.delete();
+            }
+        }
+
+        Log.i(TAG, "Restored " + stats + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return stats;
+    }
+
+    private static void flushUsers(BackupArchive.Writer writer, BackupArchive.ChunkBuffer chunk) throws IOException {
+        if (chunk.size() > 0) {
+            writer.writeChunk(BackupArchive.TYPE_USERS, chunk.array(), chunk.size(), true);
+            chunk.reset();
+        }
+    }
+
+    /**
+     * Stream the given pictures into the archive. Pictures are already compressed, so their
+     * chunks are stored as is.
+     */
+    private static int writePictures(BackupArchive.Writer writer, List<File> pictures, byte[] buffer) throws IOException {
+        int written = 0;
+        for (File picture : pictures) {
+            FileChannel input;
+            try {
+                input = new FileInputStream(picture).getChannel();
+            } catch (IOException e) {
+                Log.w(TAG, "Skipping missing picture " + picture);
+                continue;
+            }
+            try {
+                byte[] name = picture.getName().getBytes("UTF-8");
+                writer.writeChunk(BackupArchive.TYPE_PICTURE_START, name, name.length, false);
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                while (true) {
+                    byteBuffer.clear();
+                    int count = input.read(byteBuffer);
+                    if (count < 0) {
+                        break;
+                    }
+                    if (count > 0) {
+                        writer.writeChunk(BackupArchive.TYPE_PICTURE_DATA, buffer, count, false);
+                    }
+                }
+                writer.writeChunk(BackupArchive.TYPE_PICTURE_END, buffer, 0, false);
+                written++;
+            } finally {
+                input.close();
+            }
+        }
+        pictures.clear();
+        return written;
+    }
+
+    /**
+     * Insert the users of the batch whose remote id is not in the table yet, then clear it.
+     */
+    private void insertBatch(List<UserWithPhoneNumbers> batch, Stats stats) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> remoteIds = new ArrayList<>(batch.size());
+        for (UserWithPhoneNumbers user : batch) {
+            if (user.user.getRemoteId() != null) {
+                remoteIds.add(user.user.getRemoteId());
+            }
+        }
+        Set<String> existing = new HashSet<>(userDao.getExistingRemoteIds(remoteIds));
+
+        List<UserWithPhoneNumbers> missing = new ArrayList<>(batch.size());
+        for (UserWithPhoneNumbers user : batch) {
+            String remoteId = user.user.getRemoteId();
+            if (remoteId == null || existing.add(remoteId)) {
+                missing.add(user);
+            }
+        }
+        stats.skippedUsers += batch.size() - missing.size();
+        stats.users += missing.size();
+        batch.clear();
+
+        if (!missing.isEmpty()) {
+            callerIdIndex.addAll(userDao.insertAllWithPhoneNumbers(missing));
+        }
+    }
+
+    private UserWithPhoneNumbers readUser(DataInputStream input) throws IOException {
+        User user = new User();
+        user.setRemoteId(readString(input));
+        user.setFirstName(readString(input));
+        user.setLastName(readString(input));
+        user.setCompany(readString(input));
+        user.setPhoneNumber(readString(input));
+        String pictureName = readString(input);
+        if (pictureName != null) {
+            user.setImageUri(getRestoredPicture(pictureName).getAbsolutePath());
+        }
+
+        int numberCount = input.readUnsignedShort();
+        List<String> numbers = new ArrayList<>(numberCount);
+        for (int i = 0; i < numberCount; i++) {
+            numbers.add(readString(input));
+        }
+        return UserWithPhoneNumbers.of(user, numbers);
+    }
+
+    /**
+     * @return the picture file the given image URI refers to, or null if it is not a picture
+     * stored by the app.
+     */
+    @Nullable
+    private File getPicture(@Nullable String imageUri) {
+        if (imageUri == null) {
+            return null;
+        }
+        File file = new File(imageUri.startsWith("file://") ? imageUri.substring("file://".length()) : imageUri);
+        return picturesDir.equals(file.getParentFile()) ? file : null;
+    }
+
+    /**
+     * Resolve a picture name read from an archive, refusing names that would leave the pictures
+     * directory.
+     */
+    private File getRestoredPicture(String name) throws IOException {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IOException("Invalid picture name " + name);
+        }
+        return new File(picturesDir, name);
+    }
+
+    private static void writeString(DataOutputStream output, @Nullable String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,206 @@
+package edu.kse.easycaller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports users in bulk from a {@link ContactSource}.<br>
+ * Users are inserted in batches of {@link #BATCH_SIZE}, each batch in its own transaction, so a
+ * large import neither holds one long write lock nor pays one transaction per user. Users owning
+ * a normalized phone number already in the table, or earlier in the import, are skipped, and so
+ * are users without any number whose names and company are already known.
+ */
+public class ContactImporter {
+
+    private static final String TAG = "ContactImporter";
+
+    // Number of users inserted per transaction.
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Receives the progress of an import on the main thread.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param usersPerSecond number of users read per second since the import started.
+         */
+        void onProgress(int read, int inserted, int skipped, float usersPerSecond);
+
+        void onComplete(int read, int inserted, int skipped, long durationMillis);
+
+        void onError(IOException e);
+    }
+
+    private final AppDatabase database;
+    private final UserDao userDao;
+    private final CallerIdIndex callerIdIndex;
+
+    // Imports run one at a time, away from the query threads of the repository.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    ContactImporter(@NonNull AppDatabase database, @NonNull CallerIdIndex callerIdIndex) {
+        this.database = database;
+        this.userDao = database.userDao();
+        this.callerIdIndex = callerIdIndex;
+    }
+
+    /**
+     * Import every user of the source in the background, then close it.
+     */
+    public void importAsync(@NonNull final ContactSource source, @NonNull final ProgressListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    importAll(source, listener);
+                } catch (final IOException e) {
+                    Log.e(TAG, "Import failed", e);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onError(e);
+                        }
+                    });
+                } finally {
+                    try {
+                        source.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Unable to close contact source", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void importAll(ContactSource source, final ProgressListener listener) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        Set<String> seenPhoneKeys = new HashSet<>();
+        Set<String> seenNames = new HashSet<>();
+        List<UserWithPhoneNumbers> batch = new ArrayList<>(BATCH_SIZE);
+        int read = 0;
+        int inserted = 0;
+
+        UserWithPhoneNumbers user;
+        while ((user = source.next()) != null) {
+            read++;
+            batch.add(user);
+            if (batch.size() == BATCH_SIZE) {
+                inserted += insertBatch(batch, seenPhoneKeys, seenNames);
+                batch.clear();
+                postProgress(listener, read, inserted, start);
+            }
+        }
+        if (!batch.isEmpty()) {
+            inserted += insertBatch(batch, seenPhoneKeys, seenNames);
+        }
+
+        final int totalRead = read;
+        final int totalInserted = inserted;
+        final long duration = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Imported " + totalInserted + "/" + totalRead + " users in " + duration + " ms");
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(totalRead, totalInserted, totalRead - totalInserted, duration);
+            }
+        });
+    }
+
+    /**
+     * Insert the users of the batch that are not duplicates, in one transaction.
+     *
+     * @return the number of inserted users.
+     */
+    private int insertBatch(final List<UserWithPhoneNumbers> batch, final Set<String> seenPhoneKeys,
+                            final Set<String> seenNames) {
+        final List<UserWithPhoneNumbers> users = new ArrayList<>(batch.size());
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                List<String> phoneKeys = new ArrayList<>(batch.size());
+                for (UserWithPhoneNumbers user : batch) {
+                    for (PhoneNumber phoneNumber : user.phoneNumbers) {
+                        if (phoneNumber.getPhoneKey() != null) {
+                            phoneKeys.add(phoneNumber.getPhoneKey());
+                        }
+                    }
+                }
+                for (int start = 0; start < phoneKeys.size(); start += UserDao.MAX_BIND_VARIABLES) {
+                    int end = Math.min(phoneKeys.size(), start + UserDao.MAX_BIND_VARIABLES);
+                    seenPhoneKeys.addAll(userDao.getExistingPhoneKeys(phoneKeys.subList(start, end)));
+                }
+
+                for (UserWithPhoneNumbers user : batch) {
+                    if (hasPhoneKey(user) ? isNew(user, seenPhoneKeys) : isNewWithoutNumber(user, seenNames)) {
+                        users.add(user);
+                    }
+                }
+                callerIdIndex.addAll(userDao.insertAllWithPhoneNumbers(users));
+            }
+        });
+        return users.size();
+    }
+
+    /**
+     * @return true if none of the numbers of the user has been seen, then mark them all as seen.
+     */
+    private static boolean isNew(UserWithPhoneNumbers user, Set<String> seenPhoneKeys) {
+        for (PhoneNumber phoneNumber : user.phoneNumbers) {
+            if (phoneNumber.getPhoneKey() != null && seenPhoneKeys.contains(phoneNumber.getPhoneKey())) {
+                return false;
+            }
+        }
+        for (PhoneNumber phoneNumber : user.phoneNumbers) {
+            if (phoneNumber.getPhoneKey() != null) {
+                seenPhoneKeys.add(phoneNumber.getPhoneKey());
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasPhoneKey(UserWithPhoneNumbers user) {
+        for (PhoneNumber phoneNumber : user.phoneNumbers) {
+            if (phoneNumber.getPhoneKey() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A user without numbers is new if no user has the same names and company, then it is marked
+     * as seen. Only called from the transaction of the batch.
+     */
+    private boolean isNewWithoutNumber(UserWithPhoneNumbers user, Set<String> seenNames) {
+        User contact = user.user;
+        String name = contact.getFirstName() + '\u0000' + contact.getLastName() + '\u0000' + contact.getCompany();
+        if (!seenNames.add(name)) {
+            return false;
+        }
+        return userDao.countByNameAndCompany(contact.getFirstName(), contact.getLastName(), contact.getCompany()) == 0;
+    }
+
+    private void postProgress(final ProgressListener listener, final int read, final int inserted, long start) {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        final float usersPerSecond = read * 1000f / elapsed;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(read, inserted, read - inserted, usersPerSecond);
+            }
+        });
+    }
+}
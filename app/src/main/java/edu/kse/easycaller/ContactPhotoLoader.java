@@ -0,0 +1,370 @@
+package edu.kse.easycaller;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads contact pictures into image views.<br>
+ * Pictures are decoded on a background thread at the size of the target view, once it has been
+ * measured and at most {@code photo_max_dimension}, using
+ * {@link BitmapFactory.Options#inSampleSize}, kept in a memory cache keyed by picture URI and
+ * size, and decoded into evicted bitmaps when possible to avoid new allocations. Pictures shown
+ * at a thumbnail size are also kept in a {@link ThumbnailDiskCache}, so they are not decoded from
+ * the full picture again.<br>
+ * All public methods must be called from the main thread.
+ */
+public class ContactPhotoLoader {
+
+    private static final String TAG = "ContactPhotoLoader";
+
+    // Number of threads used to decode pictures.
+    private static final int THREAD_COUNT = 2;
+
+    // Maximum number of evicted bitmaps kept for reuse.
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("image.memoryHit");
+    private static final Metrics.Counter DISK_HITS = Metrics.counter("image.diskHit");
+    private static final Metrics.Histogram DECODE_LATENCY = Metrics.histogram("image.decode");
+
+    private static ContactPhotoLoader instance;
+
+    private final Context context;
+    private final int maxDimension;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThumbnailDiskCache diskCache;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Pending decode and bound cache key of every image view, to cancel or skip stale results.
+    private final Map<ImageView, Future<?>> pendingDecodes = new WeakHashMap<>();
+    private final Map<ImageView, String> boundKeys = new WeakHashMap<>();
+
+    // Image views waiting to be measured before their picture is loaded.
+    private final Map<ImageView, ViewTreeObserver.OnPreDrawListener> pendingLayouts = new WeakHashMap<>();
+
+    // Bitmaps evicted from the memory cache, by cache key, that can be decoded into again.
+    private final Map<String, SoftReference<Bitmap>> reusableBitmaps = new LinkedHashMap<>();
+
+    public static synchronized ContactPhotoLoader getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new ContactPhotoLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ContactPhotoLoader(Context context) {
+        this.context = context;
+        // Stored pictures are never larger, decoding them bigger would only waste memory.
+        this.maxDimension = context.getResources().getInteger(R.integer.photo_max_dimension);
+        this.diskCache = new ThumbnailDiskCache(new File(context.getFilesDir(), "pictures"));
+
+        // Use an eighth of the available memory for the cache.
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted && oldValue.isMutable()) {
+                    addReusableBitmap(key, oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the picture at the given URI in the image view, at the size of the view.<br>
+     * Any decode still pending for this view is cancelled. A view not laid out yet, like a page
+     * the pager has just created, is loaded once it has been measured, so its picture can come
+     * from a thumbnail of the right size.
+     *
+     * @param imageUri the picture URI as stored in {@link User#getImageUri()}, may be null.
+     */
+    public void load(@Nullable final String imageUri, @NonNull final ImageView imageView) {
+        cancel(imageView);
+        if (imageUri == null || imageUri.isEmpty()) {
+            return;
+        }
+
+        if (imageView.getWidth() <= 0 || imageView.getHeight() <= 0) {
+            ViewTreeObserver.OnPreDrawListener listener = new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    removePendingLayout(imageView);
+                    start(imageUri, imageView);
+                    return true;
+                }
+            };
+            pendingLayouts.put(imageView, listener);
+            imageView.getViewTreeObserver().addOnPreDrawListener(listener);
+            return;
+        }
+        start(imageUri, imageView);
+    }
+
+    private void start(String imageUri, ImageView imageView) {
+        int[] size = getTargetSize(imageView);
+        final String key = imageUri + "@" + size[0] + "x" + size[1];
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            MEMORY_HITS.increment();
+            boundKeys.put(imageView, key);
+            imageView.setImageBitmap(cached);
+            return;
+        }
+
+        boundKeys.put(imageView, key);
+        pendingDecodes.put(imageView, executor.submit(new DecodeTask(imageView, imageUri, key, size[0], size[1])));
+    }
+
+    /**
+     * Cancel the pending decode of the given image view, if any.
+     */
+    public void cancel(@NonNull ImageView imageView) {
+        removePendingLayout(imageView);
+        Future<?> pending = pendingDecodes.remove(imageView);
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        boundKeys.remove(imageView);
+    }
+
+    /**
+     * Forget every cached copy of the given picture, used when the picture file is replaced.
+     */
+    public void invalidate(@NonNull final String imageUri) {
+        for (String key : memoryCache.snapshot().keySet()) {
+            if (key.startsWith(imageUri + "@")) {
+                memoryCache.remove(key);
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                diskCache.invalidate(imageUri);
+            }
+        });
+    }
+
+    private void removePendingLayout(ImageView imageView) {
+        ViewTreeObserver.OnPreDrawListener listener = pendingLayouts.remove(imageView);
+        ViewTreeObserver observer = imageView.getViewTreeObserver();
+        if (listener != null && observer.isAlive()) {
+            observer.removeOnPreDrawListener(listener);
+        }
+    }
+
+    private int[] getTargetSize(ImageView imageView) {
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+        if (width <= 0 || height <= 0) {
+            // Measured empty, contact pictures are square and at most as wide as the screen.
+            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+            width = height = Math.min(metrics.widthPixels, metrics.heightPixels);
+        }
+        return new int[]{Math.min(width, maxDimension), Math.min(height, maxDimension)};
+    }
+
+    private void addReusableBitmap(String key, Bitmap bitmap) {
+        synchronized (reusableBitmaps) {
+            reusableBitmaps.put(key, new SoftReference<>(bitmap));
+            if (reusableBitmaps.size() > MAX_REUSABLE_BITMAPS) {
+                Iterator<String> iterator = reusableBitmaps.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Take an evicted bitmap big enough to hold the decoded picture, if one is not shown anymore.
+     */
+    @Nullable
+    private Bitmap takeReusableBitmap(BitmapFactory.Options options, Set<String> shownKeys) {
+        int byteCount = (options.outWidth / options.inSampleSize)
+                        * (options.outHeight / options.inSampleSize) * 4;
+        synchronized (reusableBitmaps) {
+            Iterator<Map.Entry<String, SoftReference<Bitmap>>> iterator = reusableBitmaps.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, SoftReference<Bitmap>> entry = iterator.next();
+                Bitmap bitmap = entry.getValue().get();
+                if (bitmap == null || bitmap.isRecycled()) {
+                    iterator.remove();
+                } else if (bitmap.getAllocationByteCount() >= byteCount && !shownKeys.contains(entry.getKey())) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private InputStream openStream(String imageUri) throws IOException {
+        Uri uri = Uri.parse(imageUri);
+        String scheme = uri.getScheme();
+        if (scheme == null) {
+            // Pictures cropped by the app are stored as plain file paths.
+            return new FileInputStream(imageUri);
+        }
+        if (scheme.equals("file")) {
+            return new FileInputStream(uri.getPath());
+        }
+        return context.getContentResolver().openInputStream(uri);
+    }
+
+    /**
+     * Largest power of two that keeps the decoded picture at least as big as the target size.
+     */
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+        while ((width / (inSampleSize * 2)) >= targetWidth && (height / (inSampleSize * 2)) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private class DecodeTask implements Runnable {
+
+        private final ImageView imageView;
+        private final String imageUri;
+        private final String key;
+        private final int width;
+        private final int height;
+
+        // Keys shown when the task was created, never decode into one of their bitmaps.
+        private final Set<String> shownKeys;
+
+        DecodeTask(ImageView imageView, String imageUri, String key, int width, int height) {
+            this.imageView = imageView;
+            this.imageUri = imageUri;
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.shownKeys = new HashSet<>(boundKeys.values());
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap;
+            long start = System.nanoTime();
+            try {
+                bitmap = decode();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to decode " + imageUri, e);
+                return;
+            }
+            DECODE_LATENCY.recordSince(start);
+            if (bitmap == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    memoryCache.put(key, bitmap);
+                    if (key.equals(boundKeys.get(imageView))) {
+                        pendingDecodes.remove(imageView);
+                        imageView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+
+        private Bitmap decode() throws IOException {
+            int thumbnailSize = ThumbnailDiskCache.sizeFor(Math.max(width, height));
+            if (thumbnailSize == 0) {
+                // A thumbnail this big would be as large as the stored picture itself.
+                return decode(imageUri, width, height, true);
+            }
+
+            File thumbnail = diskCache.get(imageUri, thumbnailSize);
+            if (thumbnail != null) {
+                DISK_HITS.increment();
+                return decode(thumbnail.getAbsolutePath(), width, height, true);
+            }
+
+            // Decode the full picture once at thumbnail size and keep it on disk for next time.
+            Bitmap bitmap = decode(imageUri, thumbnailSize, thumbnailSize, false);
+            if (bitmap == null) {
+                return null;
+            }
+            int longestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (longestSide > thumbnailSize) {
+                float scale = (float) thumbnailSize / longestSide;
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                                                          Math.round(bitmap.getWidth() * scale),
+                                                          Math.round(bitmap.getHeight() * scale),
+                                                          true);
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+            diskCache.put(imageUri, thumbnailSize, bitmap);
+            return bitmap;
+        }
+
+        private Bitmap decode(String imageUri, int width, int height, boolean reuseBitmap) throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            InputStream stream = openStream(imageUri);
+            try {
+                BitmapFactory.decodeStream(stream, null, options);
+            } finally {
+                stream.close();
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0 || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+            options.inMutable = true;
+            if (reuseBitmap) {
+                options.inBitmap = takeReusableBitmap(options, shownKeys);
+            }
+
+            stream = openStream(imageUri);
+            try {
+                return BitmapFactory.decodeStream(stream, null, options);
+            } catch (IllegalArgumentException e) {
+                // The reusable bitmap did not fit after all, decode into a new one.
+                options.inBitmap = null;
+                stream.close();
+                stream = openStream(imageUri);
+                return BitmapFactory.decodeStream(stream, null, options);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Full-text search over the first name, last name and company of users.<br>
+ * The user_fts table is an FTS4 index using the User table as its content, kept in sync by
+ * triggers. Every word typed is matched as a prefix and results are ranked by where they match:
+ * names starting with the first word come first, then other name matches, then company matches.
+ */
+public final class ContactSearch {
+
+    // Number of users returned by one search page.
+    public static final int PAGE_SIZE = 30;
+
+    static final String FTS_TABLE_NAME = "user_fts";
+
+    private static final String[] CREATE_STATEMENTS = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS user_fts USING fts4(content=\"User\", first_name, last_name, company)",
+            "CREATE TRIGGER IF NOT EXISTS user_fts_before_update BEFORE UPDATE ON User BEGIN "
+                    + "DELETE FROM user_fts WHERE docid = old.uid; END",
+            "CREATE TRIGGER IF NOT EXISTS user_fts_before_delete BEFORE DELETE ON User BEGIN "
+                    + "DELETE FROM user_fts WHERE docid = old.uid; END",
+            "CREATE TRIGGER IF NOT EXISTS user_fts_after_update AFTER UPDATE ON User BEGIN "
+                    + "INSERT INTO user_fts(docid, first_name, last_name, company) "
+                    + "VALUES (new.uid, new.first_name, new.last_name, new.company); END",
+            "CREATE TRIGGER IF NOT EXISTS user_fts_after_insert AFTER INSERT ON User BEGIN "
+                    + "INSERT INTO user_fts(docid, first_name, last_name, company) "
+                    + "VALUES (new.uid, new.first_name, new.last_name, new.company); END"
+    };
+
+    private static final String SEARCH_QUERY =
+            "SELECT User.* FROM User JOIN user_fts ON User.uid = user_fts.docid "
+            + "WHERE user_fts MATCH ? AND User.deleted = 0 "
+            + "ORDER BY (CASE WHEN User.first_name LIKE ? OR User.last_name LIKE ? THEN 0 "
+            + "WHEN User.company LIKE ? THEN 2 ELSE 1 END), "
+            + "User.last_name COLLATE NOCASE, User.first_name COLLATE NOCASE, User.uid "
+            + "LIMIT ? OFFSET ?";
+
+    private ContactSearch() {
+    }
+
+    /**
+     * Create the full-text table and its triggers, then index the existing users.
+     */
+    static void createFtsTable(@NonNull SupportSQLiteDatabase database) {
+        for (String statement : CREATE_STATEMENTS) {
+            database.execSQL(statement);
+        }
+        database.execSQL("INSERT INTO user_fts(user_fts) VALUES ('rebuild')");
+    }
+
+    /**
+     * Build the search query of the given page of results.
+     *
+     * @return the query, or null if the text contains nothing to search for.
+     */
+    @Nullable
+    static SupportSQLiteQuery buildQuery(@NonNull String text, int page) {
+        String[] words = splitWords(text);
+        if (words.length == 0) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word).append('*');
+        }
+
+        String prefix = words[0] + "%";
+        return new SimpleSQLiteQuery(SEARCH_QUERY, new Object[]{
+                match.toString(), prefix, prefix, prefix, PAGE_SIZE, page * PAGE_SIZE});
+    }
+
+    /**
+     * Split the text into lower case words, dropping every character FTS would read as an
+     * operator. Lower case also keeps words like "OR" from being read as operators.
+     */
+    static String[] splitWords(@NonNull String text) {
+        StringBuilder cleaned = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            cleaned.append(Character.isLetterOrDigit(c) ? c : ' ');
+        }
+        String trimmed = cleaned.toString().trim().toLowerCase(Locale.ROOT);
+        return trimmed.isEmpty() ? new String[0] : trimmed.split(" +");
+    }
+}
@@ -0,0 +1,15 @@
+package edu.kse.easycaller;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of users read from outside the app, like the system address book or a vCard file.
+ */
+public interface ContactSource extends Closeable {
+
+    /**
+     * @return the next user with its phone numbers, or null once the source is exhausted.
+     */
+    UserWithPhoneNumbers next() throws IOException;
+}
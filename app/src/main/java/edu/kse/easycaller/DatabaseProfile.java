@@ -0,0 +1,165 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteOpenHelper;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.RoomDatabase;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Settings the app database is opened with.<br>
+ * The default profile uses write-ahead logging, so the pager, search and caller id queries keep
+ * reading while an import is writing. A profile can also name a pre-packaged database in the
+ * assets, copied in place the first time the database is opened, so a fresh install starts from a
+ * warm database instead of an empty one.
+ */
+public final class DatabaseProfile {
+
+    private static final String TAG = "DatabaseProfile";
+
+    public static final DatabaseProfile DEFAULT =
+            new DatabaseProfile(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING, null);
+
+    private final RoomDatabase.JournalMode journalMode;
+    private final String prepackagedAsset;
+
+    private DatabaseProfile(RoomDatabase.JournalMode journalMode, String prepackagedAsset) {
+        this.journalMode = journalMode;
+        this.prepackagedAsset = prepackagedAsset;
+    }
+
+    public DatabaseProfile withJournalMode(@NonNull RoomDatabase.JournalMode journalMode) {
+        return new DatabaseProfile(journalMode, prepackagedAsset);
+    }
+
+    /**
+     * @param assetPath path, in the assets, of a database created by this app at any schema
+     *                  version, older versions are migrated when opened. Null for none.
+     */
+    public DatabaseProfile withPrepackagedAsset(@Nullable String assetPath) {
+        return new DatabaseProfile(journalMode, assetPath);
+    }
+
+    void apply(@NonNull RoomDatabase.Builder<AppDatabase> builder) {
+        builder.setJournalMode(journalMode);
+        if (prepackagedAsset != null) {
+            builder.openHelperFactory(new PrepackagedOpenHelperFactory(prepackagedAsset));
+        }
+    }
+
+    /**
+     * Opens databases with the framework helper, after copying the pre-packaged database if the
+     * database file does not exist yet.
+     */
+    private static class PrepackagedOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+
+        private final String assetPath;
+        private final FrameworkSQLiteOpenHelperFactory delegate = new FrameworkSQLiteOpenHelperFactory();
+
+        PrepackagedOpenHelperFactory(String assetPath) {
+            this.assetPath = assetPath;
+        }
+
+        @Override
+        public SupportSQLiteOpenHelper create(SupportSQLiteOpenHelper.Configuration configuration) {
+            return new PrepackagedOpenHelper(configuration.context, configuration.name, assetPath,
+                                             delegate.create(configuration));
+        }
+    }
+
+    private static class PrepackagedOpenHelper implements SupportSQLiteOpenHelper {
+
+        private final Context context;
+        private final String name;
+        private final String assetPath;
+        private final SupportSQLiteOpenHelper delegate;
+
+        private boolean copyChecked;
+
+        PrepackagedOpenHelper(Context context, String name, String assetPath, SupportSQLiteOpenHelper delegate) {
+            this.context = context;
+            this.name = name;
+            this.assetPath = assetPath;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getDatabaseName() {
+            return delegate.getDatabaseName();
+        }
+
+        @Override
+        public void setWriteAheadLoggingEnabled(boolean enabled) {
+            delegate.setWriteAheadLoggingEnabled(enabled);
+        }
+
+        @Override
+        public synchronized SupportSQLiteDatabase getWritableDatabase() {
+            copyIfMissing();
+            return delegate.getWritableDatabase();
+        }
+
+        @Override
+        public synchronized SupportSQLiteDatabase getReadableDatabase() {
+            copyIfMissing();
+            return delegate.getReadableDatabase();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        private void copyIfMissing() {
+            if (copyChecked || name == null) {
+                // In-memory databases never start from the assets.
+                return;
+            }
+            copyChecked = true;
+
+            File database = context.getDatabasePath(name);
+            if (database.exists()) {
+                return;
+            }
+            File tmp = new File(database.getPath() + ".tmp");
+            try {
+                InputStream input = context.getAssets().open(assetPath);
+                try {
+                    database.getParentFile().mkdirs();
+                    OutputStream output = new FileOutputStream(tmp);
+                    try {
+                        byte[] buffer = new byte[16 * 1024];
+                        int read;
+                        while ((read = input.read(buffer)) != -1) {
+                            output.write(buffer, 0, read);
+                        }
+                    } finally {
+                        output.close();
+                    }
+                } finally {
+                    input.close();
+                }
+                if (!tmp.renameTo(database)) {
+                    throw new IOException("Unable to move " + tmp + " to " + database);
+                }
+                Log.i(TAG, "Copied pre-packaged database " + assetPath);
+            } catch (FileNotFoundException e) {
+                Log.w(TAG, "No pre-packaged database at " + assetPath);
+            } catch (IOException e) {
+                // Start from an empty database rather than failing to open.
+                Log.e(TAG, "Unable to copy pre-packaged database " + assetPath, e);
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.kse.easycaller;
+
+import android.app.Application;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
+
+import java.io.File;
+
+/**
+ * Holds the objects shared by every component of the app.<br>
+ * The database and everything built on it are created lazily on first use and live as long as
+ * the process, so recreating an activity or receiving a broadcast never opens the database again.
+ */
+public class EasyCallerApp extends Application {
+
+    private AppDatabase database;
+    private CallerIdIndex callerIdIndex;
+    private UserRepository userRepository;
+    private ContactImporter contactImporter;
+    private PictureImporter pictureImporter;
+    private PictureStore pictureStore;
+
+    public static EasyCallerApp get(@NonNull Context context) {
+        return (EasyCallerApp) context.getApplicationContext();
+    }
+
+    public synchronized AppDatabase getDatabase() {
+        if (database == null) {
+            TraceCompat.beginSection("AppDatabase.build");
+            try {
+                database = AppDatabase.builder(this).build();
+            } finally {
+                TraceCompat.endSection();
+            }
+        }
+        return database;
+    }
+
+    public synchronized CallerIdIndex getCallerIdIndex() {
+        if (callerIdIndex == null) {
+            callerIdIndex = new CallerIdIndex(getDatabase());
+        }
+        return callerIdIndex;
+    }
+
+    public synchronized UserRepository getUserRepository() {
+        if (userRepository == null) {
+            userRepository = new UserRepository(getDatabase(), getCallerIdIndex());
+        }
+        return userRepository;
+    }
+
+    public synchronized ContactImporter getContactImporter() {
+        if (contactImporter == null) {
+            contactImporter = new ContactImporter(getDatabase(), getCallerIdIndex());
+        }
+        return contactImporter;
+    }
+
+    public synchronized PictureImporter getPictureImporter() {
+        if (pictureImporter == null) {
+            pictureImporter = new PictureImporter(this);
+        }
+        return pictureImporter;
+    }
+
+    public synchronized PictureStore getPictureStore() {
+        if (pictureStore == null) {
+            pictureStore = new PictureStore(getPicturesDir(), getDatabase().userDao(),
+                                            PhotoCompressor.fromResources(this));
+        }
+        return pictureStore;
+    }
+
+    /**
+     * Create a sync engine moving the users through the given transport.
+     */
+    public SyncEngine createSyncEngine(@NonNull SyncTransport transport) {
+        return new SyncEngine(getDatabase(), transport, getCallerIdIndex());
+    }
+
+    public ContactBackup createContactBackup() {
+        return new ContactBackup(getDatabase(), getPicturesDir(), getCallerIdIndex());
+    }
+
+    public File getPicturesDir() {
+        return new File(getFilesDir(), "pictures");
+    }
+
+    @Override
+    public void onTerminate() {
+        // Only called on emulated processes, real processes are killed with their connections.
+        synchronized (this) {
+            if (database != null) {
+                database.close();
+            }
+        }
+        super.onTerminate();
+    }
+}
@@ -2,14 +2,10 @@ package edu.kse.easycaller;
 
 import android.Manifest;
 import android.app.Activity;
-import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Parcelable;
@@ -18,7 +14,6 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 
-import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -40,6 +35,8 @@ public class ImageLoader {
     public static final String CAMERA_PERMISSION = Manifest.permission.CAMERA;
     public static final int CAMERA_CAPTURE_PERMISSIONS_REQUEST_CODE = 2011;
 
+    private static final Metrics.Histogram LOAD_LATENCY = Metrics.histogram("picker.load");
+
     // includeCamera if to include camera intents.
     private boolean includeCamera;
 
@@ -66,20 +63,23 @@ public class ImageLoader {
     }
 
     public void load() {
+        long start = System.nanoTime();
 
-        if( includeCamera && isExplicitCameraPermissionRequired(activity) ) {
+        boolean cameraPermissionRequired = includeCamera && isExplicitCameraPermissionRequired(activity);
+        if( cameraPermissionRequired ) {
             // request permissions and handle the result in onRequestPermissionsResult()
             String[] permissions = {Manifest.permission.CAMERA};
             ActivityCompat.requestPermissions(activity, permissions, CAMERA_CAPTURE_PERMISSIONS_REQUEST_CODE);
 
         }
-        if ( includeDocuments && isReadExternalStoragePermissionsRequired(activity, imageUri) ) {
+        if ( includeDocuments && imageUri != null && isReadExternalStoragePermissionsRequired(activity, imageUri) ) {
             // request permissions and handle the result in onRequestPermissionsResult()
             String[] permissions = {Manifest.permission.READ_EXTERNAL_STORAGE};
             ActivityCompat.requestPermissions( activity, permissions, READ_EXTERNAL_STORAGE_PERMISSIONS_REQUEST_CODE);
         }
 
-        startLoading(activity);
+        startLoading(activity, cameraPermissionRequired);
+        LOAD_LATENCY.recordSince(start);
     }
 
     /**
@@ -92,33 +92,10 @@ public class ImageLoader {
      */
     private static boolean isExplicitCameraPermissionRequired(@NonNull Context context) {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-               && hasPermissionInManifest(context, "android.permission.CAMERA")
+               && ImagePickerCache.getInstance(context).hasPermissionInManifest(Manifest.permission.CAMERA)
                && context.checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED;
     }
 
-    /**
-     * Check if the app requests a specific permission in the manifest.
-     *
-     * @param permissionName the permission to check
-     * @return true - the permission in requested in manifest, false if not.
-     */
-    private static boolean hasPermissionInManifest(@NonNull Context context, @NonNull String permissionName) {
-        String packageName = context.getPackageName();
-        try {
-            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(packageName, PackageManager.GET_PERMISSIONS);
-            final String[] declaredPermissions = packageInfo.requestedPermissions;
-            if (declaredPermissions != null) {
-                for (String p : declaredPermissions) {
-                    if (p.equalsIgnoreCase(permissionName)) {
-                        return true;
-                    }
-                }
-            }
-        } catch (PackageManager.NameNotFoundException e) {
-        }
-        return false;
-    }
-
     /**
      * Check if the given image URI requires READ_EXTERNAL_STORAGE permissions.<br>
      * Only relevant for API version 23 and above and not required for all URI's depends on the
@@ -162,10 +139,11 @@ public class ImageLoader {
      * Use "select_picture" string resource to set pick chooser title.
      *
      * @param activity the activity to be used to start activity from
+     * @param cameraPermissionRequired if the camera permission still has to be granted.
      */
-    private void startLoading(@NonNull Activity activity) {
+    private void startLoading(@NonNull Activity activity, boolean cameraPermissionRequired) {
         String title = activity.getString(R.string.select_picture);
-        Intent intent = getPickImageChooserIntent(activity, title);
+        Intent intent = getPickImageChooserIntent(activity, title, cameraPermissionRequired);
         activity.startActivityForResult(intent, IMAGE_REQUEST_CODE);
     }
 
@@ -178,23 +156,19 @@ public class ImageLoader {
      * @param context used to access Android APIs, like content resolve, it is your
      *     activity/fragment/widget.
      * @param title the title to use for the chooser UI
+     * @param cameraPermissionRequired if the camera permission still has to be granted.
      */
-    private Intent getPickImageChooserIntent(@NonNull Context context, CharSequence title) {
+    private Intent getPickImageChooserIntent(@NonNull Context context, CharSequence title, boolean cameraPermissionRequired) {
 
         List<Intent> allIntents = new ArrayList<>();
-        PackageManager packageManager = context.getPackageManager();
+        ImagePickerCache pickerCache = ImagePickerCache.getInstance(context);
 
         // collect all camera intents if Camera permission is available
-        if (includeCamera && !isExplicitCameraPermissionRequired(context)) {
-            allIntents.addAll(getCameraIntents(context, packageManager));
+        if (includeCamera && !cameraPermissionRequired) {
+            allIntents.addAll(pickerCache.getCameraIntents());
         }
 
-        List<Intent> galleryIntents = getGalleryIntents(packageManager, Intent.ACTION_GET_CONTENT, includeDocuments);
-        if (galleryIntents.size() == 0) {
-            // if no intents found for get-content try pick intent action (Huawei P9).
-            galleryIntents = getGalleryIntents(packageManager, Intent.ACTION_PICK, includeDocuments);
-        }
-        allIntents.addAll(galleryIntents);
+        allIntents.addAll(getGalleryIntents(pickerCache, includeDocuments));
 
         Intent target;
         if (allIntents.isEmpty()) {
@@ -213,62 +187,12 @@ public class ImageLoader {
         return chooserIntent;
     }
 
-    /**
-     *  Get all Camera intents for capturing image using device camera apps.
-     */
-    private static List<Intent> getCameraIntents(@NonNull Context context, @NonNull PackageManager packageManager) {
-
-        List<Intent> allIntents = new ArrayList<>();
-
-        // Determine Uri of camera image to  save.
-        Uri outputFileUri = getCaptureImageOutputUri(context);
-
-        Intent captureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
-        List<ResolveInfo> listCam = packageManager.queryIntentActivities(captureIntent, 0);
-        for (ResolveInfo res : listCam) {
-            Intent intent = new Intent(captureIntent);
-            intent.setComponent(new ComponentName(res.activityInfo.packageName, res.activityInfo.name));
-            intent.setPackage(res.activityInfo.packageName);
-            if (outputFileUri != null) {
-                intent.putExtra(MediaStore.EXTRA_OUTPUT, outputFileUri);
-            }
-            allIntents.add(intent);
-        }
-
-        return allIntents;
-    }
-
-    /**
-     * Get URI to image received from capture by camera.
-     *
-     * @param context used to access Android APIs, like content resolve, it is your
-     *     activity/fragment/widget.
-     */
-    private static Uri getCaptureImageOutputUri(@NonNull Context context) {
-        Uri outputFileUri = null;
-        File imagePath = context.getExternalCacheDir();
-        if (imagePath != null) {
-            outputFileUri = Uri.fromFile(new File(imagePath.getPath(), "pickImageResult.jpeg"));
-        }
-        return outputFileUri;
-    }
-
     /**
      * Get all Gallery intents for getting image from one of the apps of the device that handle
      * images.
      */
-    private static List<Intent> getGalleryIntents(@NonNull PackageManager packageManager, String action, boolean includeDocuments) {
-        List<Intent> intents = new ArrayList<>();
-        Intent galleryIntent = action.equals(Intent.ACTION_GET_CONTENT) ?
-                new Intent(action) : new Intent(action, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
-        galleryIntent.setType("image/*");
-        List<ResolveInfo> listGallery = packageManager.queryIntentActivities(galleryIntent, 0);
-        for (ResolveInfo res : listGallery) {
-            Intent intent = new Intent(galleryIntent);
-            intent.setComponent(new ComponentName(res.activityInfo.packageName, res.activityInfo.name));
-            intent.setPackage(res.activityInfo.packageName);
-            intents.add(intent);
-        }
+    private static List<Intent> getGalleryIntents(@NonNull ImagePickerCache pickerCache, boolean includeDocuments) {
+        List<Intent> intents = pickerCache.getGalleryIntents();
 
         // remove documents intent
         if (!includeDocuments) {
@@ -287,7 +211,8 @@ public class ImageLoader {
 
     /**
      * Get the URI of the selected image from { @link #getPickImageChooserIntent(Context)}.<br>
-     * Will return the correct URI for camera and gallery image.
+     * Will return the correct URI for camera and gallery image. Gallery images are returned as
+     * picked, usually a content URI, to be read through the content resolver.
      *
      * @param data the returned data of the activity result
      */
@@ -297,21 +222,6 @@ public class ImageLoader {
             String action = data.getAction();
             isCamera = action != null && action.equals(MediaStore.ACTION_IMAGE_CAPTURE);
         }
-        return isCamera || data.getData() == null ? getCaptureImageOutputUri(activity) : getRealUri(activity, data.getData());
-    }
-
-    private static Uri getRealUri(Context context, Uri contentUri) {
-        Cursor cursor = null;
-        try {
-            String[] proj = {MediaStore.Images.Media.DATA};
-            cursor = context.getContentResolver().query(contentUri, proj, null, null, null);
-            assert cursor != null;
-            int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-            cursor.moveToFirst();
-            return Uri.fromFile(new File(cursor.getString(column_index)));
-        } finally {
-            if (cursor != null)
-                cursor.close();
-        }
+        return isCamera ? ImagePickerCache.getCaptureImageOutputUri(activity) : data.getData();
     }
 }
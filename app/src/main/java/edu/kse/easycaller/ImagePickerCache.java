@@ -0,0 +1,154 @@
+package edu.kse.easycaller;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Caches the results of the package manager queries made by {@link ImageLoader}: the activities
+ * able to capture or pick an image and the permissions requested in the manifest.<br>
+ * They are resolved once and dropped whenever a package is added, removed or changed, so opening
+ * the picker again does not repeat the same binder calls.
+ */
+class ImagePickerCache {
+
+    private static ImagePickerCache instance;
+
+    private final Context context;
+
+    // Resolved intents, null until first needed or after a package change.
+    private List<Intent> cameraIntents;
+    private List<Intent> galleryIntents;
+    private Set<String> requestedPermissions;
+
+    static synchronized ImagePickerCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new ImagePickerCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ImagePickerCache(Context context) {
+        this.context = context;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    synchronized void invalidate() {
+        cameraIntents = null;
+        galleryIntents = null;
+        requestedPermissions = null;
+    }
+
+    /**
+     * Get an intent for every camera app, each writing its capture to
+     * {@link #getCaptureImageOutputUri(Context)}.
+     */
+    synchronized List<Intent> getCameraIntents() {
+        if (cameraIntents == null) {
+            Intent captureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+            Uri outputFileUri = getCaptureImageOutputUri(context);
+            if (outputFileUri != null) {
+                captureIntent.putExtra(MediaStore.EXTRA_OUTPUT, outputFileUri);
+            }
+            cameraIntents = resolve(captureIntent);
+        }
+        return copy(cameraIntents);
+    }
+
+    /**
+     * Get an intent for every gallery app, using ACTION_PICK when no app handles
+     * ACTION_GET_CONTENT (Huawei P9).
+     */
+    synchronized List<Intent> getGalleryIntents() {
+        if (galleryIntents == null) {
+            Intent getContentIntent = new Intent(Intent.ACTION_GET_CONTENT);
+            getContentIntent.setType("image/*");
+            galleryIntents = resolve(getContentIntent);
+            if (galleryIntents.isEmpty()) {
+                Intent pickIntent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+                pickIntent.setType("image/*");
+                galleryIntents = resolve(pickIntent);
+            }
+        }
+        return copy(galleryIntents);
+    }
+
+    /**
+     * Check if the app requests the given permission in its manifest.
+     */
+    synchronized boolean hasPermissionInManifest(@NonNull String permissionName) {
+        if (requestedPermissions == null) {
+            requestedPermissions = new HashSet<>();
+            try {
+                PackageInfo packageInfo = context.getPackageManager()
+                                                 .getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+                if (packageInfo.requestedPermissions != null) {
+                    for (String permission : packageInfo.requestedPermissions) {
+                        requestedPermissions.add(permission.toLowerCase(Locale.ROOT));
+                    }
+                }
+            } catch (PackageManager.NameNotFoundException ignored) {
+            }
+        }
+        return requestedPermissions.contains(permissionName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get URI to image received from capture by camera.
+     */
+    @Nullable
+    static Uri getCaptureImageOutputUri(@NonNull Context context) {
+        File imagePath = context.getExternalCacheDir();
+        return imagePath != null ? Uri.fromFile(new File(imagePath.getPath(), "pickImageResult.jpeg")) : null;
+    }
+
+    private List<Intent> resolve(Intent baseIntent) {
+        List<ResolveInfo> infos = context.getPackageManager().queryIntentActivities(baseIntent, 0);
+        List<Intent> intents = new ArrayList<>(infos.size());
+        for (ResolveInfo res : infos) {
+            Intent intent = new Intent(baseIntent);
+            intent.setComponent(new ComponentName(res.activityInfo.packageName, res.activityInfo.name));
+            intent.setPackage(res.activityInfo.packageName);
+            intents.add(intent);
+        }
+        return Collections.unmodifiableList(intents);
+    }
+
+    // The chooser takes ownership of the intents it is given, hand out copies.
+    private static List<Intent> copy(List<Intent> intents) {
+        List<Intent> copies = new ArrayList<>(intents.size());
+        for (Intent intent : intents) {
+            copies.add(new Intent(intent));
+        }
+        return copies;
+    }
+}
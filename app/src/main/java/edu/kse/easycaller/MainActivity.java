@@ -1,14 +1,13 @@
 package edu.kse.easycaller;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
-import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.net.Uri;
-import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.view.PagerAdapter;
@@ -16,9 +15,14 @@ import android.support.v7.app.AppCompatActivity;
 
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentPagerAdapter;
+import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatDialog;
 import android.support.v7.widget.AppCompatButton;
 import android.support.v7.widget.AppCompatEditText;
@@ -37,16 +41,33 @@ import com.yalantis.ucrop.UCrop;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import de.hdodenhof.circleimageview.CircleImageView;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final int USER_PICTURE_REQUEST_CODE = 2;
-    private static final String USERS_TABLE_NAME = "Users.db";
+    private static final int CALLER_ID_PERMISSION_REQUEST_CODE = 3;
+    private static final int CONTACTS_PERMISSION_REQUEST_CODE = 4;
+
+    // Period of the metrics dump to files/metrics/metrics.txt.
+    private static final long METRICS_DUMP_PERIOD_MINUTES = 15;
+
+    private static final String PREFERENCES_NAME = "main";
+    private static final String SORT_ORDER_PREFERENCE = "sort_order";
+
+    private static final Metrics.Counter USERS_CHANGED = Metrics.counter("ui.usersChanged");
+    private static final Metrics.Histogram FIRST_CONTACT_LATENCY = Metrics.histogram("ui.timeToFirstContact");
+    private static final Metrics.Histogram CREATE_VIEW_LATENCY = Metrics.histogram("ui.fragmentCreateView");
 
     private final ImageLoader imageLoader;
 
@@ -58,24 +79,49 @@ public class MainActivity extends AppCompatActivity {
     private String lastName;
     private String company;
     private String profilePictureUri;
-    private String phoneNumber;
 
-    private volatile static User currentUser;
+    // Copies picked pictures into the app, the running copy is cancelled with the dialog.
+    private PictureImporter pictureImporter;
+    private PictureImporter.Task pictureImport;
+
+    // Names pictures by content and deletes the ones no user refers to.
+    private PictureStore pictureStore;
 
     /**
      * The {@link android.support.v4.view.PagerAdapter} that will provide
      * fragments for each of the sections. We use a
-     * {@link FragmentPagerAdapter} derivative, which will keep every
-     * loaded fragment in memory. If this becomes too memory intensive, it
-     * may be best to switch to a
-     * {@link android.support.v4.app.FragmentStatePagerAdapter}.
+     * {@link FragmentStatePagerAdapter} derivative, which only keeps the
+     * fragments inside the offscreen page limit alive and saves the state
+     * of the others, so memory stays bounded however many users there are.
      */
     PagerAdapter pagerAdapter;
 
     //The {@link ViewPager} that will host the section contents.
     ViewPager viewPager;
 
-    private static UserDao userDao;
+    // Resolves pager positions to users, loading them page by page.
+    UserPagingSource pagingSource;
+
+    // Calls the user of the visible page.
+    private CallDispatcher callDispatcher;
+
+    private UserRepository userRepository;
+    private ContactImporter contactImporter;
+
+    // Subscription that keeps the pager in sync with the user table.
+    private Disposable usersSubscription;
+
+    // Order of the pages, and the button showing the section of the current page.
+    private SortOrder sortOrder;
+    private AppCompatTextView sectionView;
+
+    // Shows until the first contact is ready to be displayed.
+    private View loadingView;
+
+    // Startup time, counted down once the first contact is shown for the startup benchmark.
+    private long createTimeMillis;
+    private long timeToFirstContactMillis = -1;
+    final CountDownLatch firstContactLatch = new CountDownLatch(1);
 
     public MainActivity(){
         // Initialize image loader
@@ -83,66 +129,356 @@ public class MainActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
+    protected void onCreate(final Bundle savedInstanceState) {
+        createTimeMillis = SystemClock.elapsedRealtime();
+        TraceCompat.beginSection("MainActivity.onCreate");
+        try {
+            super.onCreate(savedInstanceState);
+            setUp(savedInstanceState);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private void setUp(final Bundle savedInstanceState) {
         setContentView(R.layout.activity_main);
 
-        // Initialize user data access object (userDao)
-        userDao = Room.databaseBuilder(this, AppDatabase.class, USERS_TABLE_NAME)
-                      .allowMainThreadQueries()
-                      .build()
-                      .userDao();
+        // The database and repositories are shared by the whole app, all queries run off the
+        // main thread. Nothing is opened until the ids are observed below.
+        EasyCallerApp app = EasyCallerApp.get(this);
+        userRepository = app.getUserRepository();
+        contactImporter = app.getContactImporter();
+        pictureImporter = app.getPictureImporter();
+        pictureStore = app.getPictureStore();
 
-        // Create adapter that will return a fragment for each of user.
-        pagerAdapter = new MyPagerAdapter(getSupportFragmentManager());
+        // Create adapter that will return a fragment for each of user, it is attached to the
+        // pager once the first contact is loaded.
+        pagingSource = new UserPagingSource(userRepository);
+        pagerAdapter = new MyPagerAdapter(getSupportFragmentManager(), pagingSource);
+        callDispatcher = new CallDispatcher(this, pagingSource);
 
         // Set up the ViewPager with the sections adapter.
+        loadingView = findViewById(R.id.loadingPB);
+        sectionView = findViewById(R.id.sectionBtn);
         viewPager = findViewById(R.id.container);
-        viewPager.setAdapter(pagerAdapter);
-    }
+        viewPager.setOffscreenPageLimit(getResources().getInteger(R.integer.pager_offscreen_page_limit));
+        viewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                pagingSource.prefetch(position);
+                callDispatcher.onPageShown(position);
+                updateSectionView();
+            }
+        });
 
-    public void onAnswerBtnClicked(View view) {
-        if (isPermissionGranted()) {
-            startCalling();
+        sortOrder = loadSortOrder();
+        observeUsers(savedInstanceState == null, -1);
+
+        // A long press on the add button imports the system address book.
+        findViewById(R.id.imageButton).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                confirmAddressBookImport();
+                return true;
+            }
+        });
+
+        // Opened with a vCard file, import its contacts.
+        Intent intent = getIntent();
+        if (savedInstanceState == null && Intent.ACTION_VIEW.equals(intent.getAction()) && intent.getData() != null) {
+            importVCard(intent.getData());
         }
     }
 
-    @SuppressLint("MissingPermission")
-    public void startCalling() {
-        if(currentUser != null) {
-            String phoneNumber = currentUser.getPhoneNumber();
-            if (phoneNumber != null && !phoneNumber.isEmpty()) {
-                Intent callIntent = new Intent(Intent.ACTION_CALL);
-                callIntent.setData(Uri.parse("tel:" + phoneNumber));
-                startActivity(callIntent);
+    /**
+     * Keep the pager in sync with the user table, in the current sort order.
+     *
+     * @param keptUid user to keep showing once the ids are reordered, -1 to stay at the same
+     *                position.
+     */
+    private void observeUsers(final boolean freshStart, final int keptUid) {
+        if (usersSubscription != null) {
+            usersSubscription.dispose();
+        }
+        usersSubscription = userRepository.observeIds(sortOrder).subscribe(new Consumer<SortedIds>() {
+            private int uidToShow = keptUid;
+
+            @Override
+            public void accept(SortedIds uids) {
+                USERS_CHANGED.increment();
+                pagingSource.setUids(uids);
+                if (viewPager.getAdapter() == null) {
+                    attachPagerWhenLoaded(freshStart);
+                    return;
+                }
+                pagerAdapter.notifyDataSetChanged();
+                if (uidToShow >= 0) {
+                    int position = pagingSource.indexOf(uidToShow);
+                    uidToShow = -1;
+                    if (position >= 0) {
+                        viewPager.setCurrentItem(position, false);
+                    }
+                }
+                if (uids.size() > 0) {
+                    pagingSource.prefetch(viewPager.getCurrentItem());
+                }
+                callDispatcher.onUsersChanged(viewPager.getCurrentItem());
+                updateSectionView();
             }
+        });
+    }
+
+    private SortOrder loadSortOrder() {
+        String name = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE)
+                .getString(SORT_ORDER_PREFERENCE, SortOrder.LAST_NAME.name());
+        try {
+            return SortOrder.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return SortOrder.LAST_NAME;
         }
     }
 
-    public  boolean isPermissionGranted() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            if (checkSelfPermission(android.Manifest.permission.CALL_PHONE) == PackageManager.PERMISSION_GRANTED) {
-                Log.v("TAG","Permission is granted");
-                return true;
-            } else {
-                Log.v("TAG","Permission is revoked");
-                ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CALL_PHONE}, 1);
-                return false;
+    private void setSortOrder(SortOrder order) {
+        if (order == sortOrder) {
+            return;
+        }
+        sortOrder = order;
+        getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE).edit()
+                .putString(SORT_ORDER_PREFERENCE, order.name())
+                .apply();
+
+        // Keep showing the same contact in the new order.
+        int position = viewPager.getCurrentItem();
+        int uid = position < pagingSource.size() ? pagingSource.getUid(position) : -1;
+        observeUsers(false, uid);
+    }
+
+    private void updateSectionView() {
+        int section = pagingSource.size() > 0 ? pagingSource.getSectionForPosition(viewPager.getCurrentItem()) : -1;
+        if (section >= 0) {
+            sectionView.setText(pagingSource.getSections()[section]);
+        } else {
+            sectionView.setText(R.string.sort_by);
+        }
+    }
+
+    /**
+     * Show the sections of the current order to jump to, or the sort orders if it has none.<br>
+     * Jumping only loads the pages around the chosen section.
+     */
+    public void onSectionBtnClicked(View view) {
+        String[] sections = pagingSource.getSections();
+        if (sections.length == 0) {
+            showSortOrders();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.jump_to)
+                .setItems(sections, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which < pagingSource.getSections().length) {
+                            viewPager.setCurrentItem(pagingSource.getPositionForSection(which), false);
+                        }
+                    }
+                })
+                .setNeutralButton(R.string.sort_by, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showSortOrders();
+                    }
+                })
+                .show();
+    }
+
+    private void showSortOrders() {
+        final SortOrder[] orders = SortOrder.values();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.sort_by)
+                .setSingleChoiceItems(R.array.sort_orders, sortOrder.ordinal(), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        setSortOrder(orders[which]);
+                    }
+                })
+                .show();
+    }
+
+    private void importVCard(Uri uri) {
+        InputStream stream;
+        try {
+            stream = getContentResolver().openInputStream(uri);
+        } catch (IOException e) {
+            Log.e("TAG", "Unable to open " + uri, e);
+            Toast.makeText(this, R.string.import_failed, Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (stream == null) {
+            return;
+        }
+
+        contactImporter.importAsync(new VCardParser(new InputStreamReader(stream)), newImportListener());
+    }
+
+    private void confirmAddressBookImport() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.import_address_book)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.READ_CONTACTS)
+                                == PackageManager.PERMISSION_GRANTED) {
+                            importAddressBook();
+                        } else {
+                            ActivityCompat.requestPermissions(MainActivity.this,
+                                                              new String[]{Manifest.permission.READ_CONTACTS},
+                                                              CONTACTS_PERMISSION_REQUEST_CODE);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Import the system address book, the query and inserts run on the importer's thread.
+     */
+    private void importAddressBook() {
+        contactImporter.importAsync(new AddressBookSource(getContentResolver()), newImportListener());
+    }
+
+    private ContactImporter.ProgressListener newImportListener() {
+        final Context context = getApplicationContext();
+        return new ContactImporter.ProgressListener() {
+            @Override
+            public void onProgress(int read, int inserted, int skipped, float usersPerSecond) {
+                Log.i("IMPORT", read + " read, " + inserted + " inserted, " + usersPerSecond + " users/s");
+            }
+
+            @Override
+            public void onComplete(int read, int inserted, int skipped, long durationMillis) {
+                Toast.makeText(context, context.getString(R.string.import_complete, inserted, read),
+                               Toast.LENGTH_LONG).show();
+            }
+
+            @Override
+            public void onError(IOException e) {
+                Toast.makeText(context, R.string.import_failed, Toast.LENGTH_LONG).show();
+            }
+        };
+    }
+
+    /**
+     * Attach the adapter once the first contact is loaded, so the pager never shows empty pages,
+     * then run the startup work that can wait.
+     */
+    private void attachPagerWhenLoaded(final boolean freshStart) {
+        if (pagingSource.size() == 0) {
+            attachPager(freshStart);
+            return;
+        }
+        pagingSource.prefetch(0);
+        pagingSource.getUser(pagingSource.getUid(0), new UserRepository.Callback<User>() {
+            @Override
+            public void onResult(User user) {
+                if (viewPager.getAdapter() == null && !isFinishing()) {
+                    attachPager(freshStart);
+                }
             }
+        });
+    }
+
+    private void attachPager(boolean freshStart) {
+        TraceCompat.beginSection("MainActivity.attachPager");
+        try {
+            viewPager.setAdapter(pagerAdapter);
+            loadingView.setVisibility(View.GONE);
+            callDispatcher.onUsersChanged(viewPager.getCurrentItem());
+            updateSectionView();
+        } finally {
+            TraceCompat.endSection();
         }
-        else { //permission is automatically granted on sdk<23 upon installation
-            Log.v("TAG","Permission is granted");
-            return true;
+
+        timeToFirstContactMillis = SystemClock.elapsedRealtime() - createTimeMillis;
+        Log.i("STARTUP", "First contact shown in " + timeToFirstContactMillis + " ms");
+        FIRST_CONTACT_LATENCY.record(timeToFirstContactMillis * 1000);
+        reportFullyDrawn();
+        firstContactLatch.countDown();
+
+        if (freshStart) {
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    runDeferredStartup();
+                    return false;
+                }
+            });
+        }
+    }
+
+    /**
+     * Startup work the first contact does not need, run once the main thread is idle.
+     */
+    private void runDeferredStartup() {
+        EasyCallerApp app = EasyCallerApp.get(this);
+        app.getCallerIdIndex().warmUp();
+        Metrics.startPeriodicDump(new File(new File(getFilesDir(), "metrics"), "metrics.txt"),
+                                  METRICS_DUMP_PERIOD_MINUTES, TimeUnit.MINUTES);
+        pictureStore.sweep();
+        pictureStore.migrateAsync(null);
+        requestCallerIdPermission();
+    }
+
+    /**
+     * @return the time from onCreate to the first contact shown, or -1 if it is not shown yet.
+     */
+    long getTimeToFirstContactMillis() {
+        return timeToFirstContactMillis;
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        callDispatcher.refreshPermission();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (usersSubscription != null) {
+            usersSubscription.dispose();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Ask for the phone state permission the {@link CallerIdReceiver} needs to see incoming calls.
+     */
+    private void requestCallerIdPermission() {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.READ_PHONE_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_PHONE_STATE},
+                                              CALLER_ID_PERMISSION_REQUEST_CODE);
         }
     }
 
+    public void onAnswerBtnClicked(View view) {
+        callDispatcher.dial();
+    }
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String permissions[], @NonNull int[] grantResults) {
         switch (requestCode) {
-            case 1: {
+            case CallDispatcher.CALL_PERMISSION_REQUEST_CODE: {
+                callDispatcher.onPermissionResult(grantResults.length > 0
+                                                  && grantResults[0] == PackageManager.PERMISSION_GRANTED);
+                break;
+            }
+            case CONTACTS_PERMISSION_REQUEST_CODE: {
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                    startCalling();
+                    importAddressBook();
+                } else {
+                    Toast.makeText(this, R.string.contacts_permission_denied, Toast.LENGTH_LONG).show();
                 }
                 break;
             }
@@ -150,6 +486,8 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void onAddUserBtnClicked(final View view) {
+        // Fields of earlier dialogs are gone with them.
+        dialogPhoneNumberETs.clear();
 
         final AppCompatDialog dialog = new AppCompatDialog(this, R.style.AppTheme_NoActionBar);
         dialog.setContentView(R.layout.fragment_add_new_contact);
@@ -168,6 +506,13 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialogInterface) {
+                cancelPictureImport();
+            }
+        });
+
         doneBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -178,8 +523,12 @@ public class MainActivity extends AppCompatActivity {
                 firstName = firstNameET.getText().toString();
                 lastName = lastNameET.getText().toString();
                 company = companyET.getText().toString();
+                List<String> phoneNumbers = new ArrayList<>(dialogPhoneNumberETs.size());
                 for(AppCompatEditText editText : dialogPhoneNumberETs){
-                    phoneNumber = editText.getText().toString();
+                    String phoneNumber = editText.getText().toString().trim();
+                    if (!phoneNumber.isEmpty()) {
+                        phoneNumbers.add(phoneNumber);
+                    }
                 }
 
                 dialog.cancel();
@@ -188,13 +537,11 @@ public class MainActivity extends AppCompatActivity {
 
                 user.setFirstName(firstName);
                 user.setLastName(lastName);
-                user.setPhoneNumber(phoneNumber);
                 user.setImageUri(profilePictureUri);
                 user.setCompany(company);
 
-                userDao.insertAll(user);
-
-                pagerAdapter.notifyDataSetChanged();
+                // The pager is refreshed by the users subscription once the insert lands.
+                userRepository.insert(user, phoneNumbers);
             }
         });
 
@@ -281,25 +628,9 @@ public class MainActivity extends AppCompatActivity {
         if(requestCode == USER_PICTURE_REQUEST_CODE){
             if(resultCode == RESULT_OK){
                 Uri srcUri = imageLoader.getImageResultUri(data);
-
-                String dirPath = getFilesDir().getAbsolutePath() + File.separator + "pictures";
-                File picturesDir = new File(dirPath);
-                if (!picturesDir.exists()) {
-                    picturesDir.mkdirs();
+                if (srcUri != null) {
+                    importPicture(srcUri);
                 }
-
-                int userId = userDao.getCount() + 1;
-                String pictureFileName = "user" + userId + ".jpg";
-
-                File pictureFile = new File(dirPath, pictureFileName);
-                try {
-                    pictureFile.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-
-                Uri dstUri = Uri.parse( pictureFile.getAbsolutePath() );
-                UCrop.of(srcUri, dstUri).withAspectRatio(1, 1).start(this);
             }
         }
 
@@ -307,12 +638,18 @@ public class MainActivity extends AppCompatActivity {
             if(resultCode == RESULT_OK) {
                 final Uri resultUri = UCrop.getOutput(data);
 
-                profilePictureUri = resultUri.toString();
-                dialogPhotoIV.setImageURI(resultUri);
-
-                Toast.makeText(this, profilePictureUri, Toast.LENGTH_LONG).show();
-
-                dialogAddPhotoTV.setVisibility(View.INVISIBLE);
+                pictureStore.store(new File(resultUri.getPath()), new UserRepository.Callback<File>() {
+                    @Override
+                    public void onResult(File picture) {
+                        if (picture == null) {
+                            Toast.makeText(MainActivity.this, R.string.picture_import_failed, Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        profilePictureUri = picture.getAbsolutePath();
+                        ContactPhotoLoader.getInstance(MainActivity.this).load(profilePictureUri, dialogPhotoIV);
+                        dialogAddPhotoTV.setVisibility(View.INVISIBLE);
+                    }
+                });
             }
         } else if (resultCode == UCrop.RESULT_ERROR) {
             final Throwable cropError = UCrop.getError(data);
@@ -320,76 +657,176 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Copy the picked picture into the app, then crop it into the picture of the new user.
+     */
+    private void importPicture(Uri srcUri) {
+        cancelPictureImport();
+
+        String dirPath = getFilesDir().getAbsolutePath() + File.separator + "pictures";
+        File pickedFile = new File(dirPath, PictureStore.PICKED_FILE_NAME);
+        pictureImport = pictureImporter.importPicture(srcUri, pickedFile, new PictureImporter.Listener() {
+            @Override
+            public void onProgress(long readBytes, long totalBytes) {
+                if (totalBytes > 0 && dialogAddPhotoTV != null) {
+                    dialogAddPhotoTV.setText(getString(R.string.picture_import_progress,
+                                                       (int) (100 * readBytes / totalBytes)));
+                }
+            }
+
+            @Override
+            public void onComplete(final File file) {
+                pictureImport = null;
+                if (dialogAddPhotoTV != null) {
+                    dialogAddPhotoTV.setText(R.string.add_photo);
+                }
+                // Cropped to a temporary file, renamed after its content once cropping is done.
+                Uri dstUri = Uri.parse(pictureStore.newTempFile().getAbsolutePath());
+                UCrop.of(Uri.fromFile(file), dstUri).withAspectRatio(1, 1).start(MainActivity.this);
+            }
+
+            @Override
+            public void onError(IOException e) {
+                pictureImport = null;
+                if (dialogAddPhotoTV != null) {
+                    dialogAddPhotoTV.setText(R.string.add_photo);
+                }
+                Toast.makeText(MainActivity.this, R.string.picture_import_failed, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private void cancelPictureImport() {
+        if (pictureImport != null) {
+            pictureImport.cancel();
+            pictureImport = null;
+        }
+    }
+
     /**
      * A placeholder fragment containing a simple view.
      */
     public static class MyFragment extends Fragment {
 
         /**
-         * The fragment argument representing the section number for this fragment.
+         * The fragment argument representing the id of the user shown by this fragment.
          */
-        private static final String ARG_SECTION_NUMBER = "section_number";
+        private static final String ARG_USER_ID = "user_id";
 
         /**
-         * Returns a new instance of this fragment for the given section number.
+         * The fragment argument representing the pager position the fragment was created at.
          */
-        public static MyFragment newInstance(int sectionNumber) {
+        private static final String ARG_POSITION = "position";
+
+        /**
+         * Returns a new instance of this fragment for the given user id at the given position.
+         */
+        public static MyFragment newInstance(int userId, int position) {
             MyFragment fragment = new MyFragment();
             Bundle args = new Bundle();
-            args.putInt(ARG_SECTION_NUMBER, sectionNumber);
+            args.putInt(ARG_USER_ID, userId);
+            args.putInt(ARG_POSITION, position);
             fragment.setArguments(args);
             return fragment;
         }
 
+        int getUserId() {
+            return getArguments().getInt(ARG_USER_ID);
+        }
+
+        int getPosition() {
+            return getArguments().getInt(ARG_POSITION);
+        }
+
         @Override
         public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 
+            long start = System.nanoTime();
             View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
-            ImageView imageView = rootView.findViewById(R.id.appCompatImageView);
-
-            int userId = getArguments().getInt(ARG_SECTION_NUMBER);
+            final ImageView imageView = rootView.findViewById(R.id.appCompatImageView);
+
+            // The user usually comes from an already prefetched page, otherwise it is delivered
+            // once its page has been loaded.
+            UserPagingSource pagingSource = ((MainActivity) getActivity()).pagingSource;
+            pagingSource.getUser(getUserId(), new UserRepository.Callback<User>() {
+                @Override
+                public void onResult(User user) {
+                    if (user == null || !isAdded()) {
+                        return;
+                    }
+                    try {
+                        ContactPhotoLoader.getInstance(getContext()).load(user.getImageUri(), imageView);
+                    }catch (Exception e){
+                        Log.e("Error: ", e.toString());
+                    }
+                }
+            });
+            CREATE_VIEW_LATENCY.recordSince(start);
+            return rootView;
+        }
 
-            try {
-                currentUser = userDao.getById(userId);
-                Uri uri = Uri.parse(currentUser.getImageUri());
-                imageView.setImageURI(uri);
-            }catch (Exception e){
-                Log.e("Error: ", e.toString());
+        @Override
+        public void onDestroyView() {
+            // Release the picture right away instead of waiting for the fragment to be collected.
+            View rootView = getView();
+            if (rootView != null) {
+                ImageView imageView = rootView.findViewById(R.id.appCompatImageView);
+                ContactPhotoLoader.getInstance(getContext()).cancel(imageView);
+                imageView.setImageDrawable(null);
             }
-            return rootView;
+            super.onDestroyView();
         }
     }
 
     /**
-     * A {@link FragmentPagerAdapter} that returns a fragment corresponding to
-     * one of the sections/tabs/pages.
+     * A {@link FragmentStatePagerAdapter} that returns a fragment corresponding to
+     * one of the sections/tabs/pages.<br>
+     * Counts created and destroyed pages in {@link Metrics}, so the number of live pages can be
+     * checked against the offscreen page limit.
      */
-    public static class MyPagerAdapter extends FragmentPagerAdapter {
+    public static class MyPagerAdapter extends FragmentStatePagerAdapter {
+
+        private static final Metrics.Counter PAGES_CREATED = Metrics.counter("pager.pageCreated");
+        private static final Metrics.Counter PAGES_DESTROYED = Metrics.counter("pager.pageDestroyed");
 
-        private int count;
+        private final UserPagingSource pagingSource;
 
-        MyPagerAdapter(FragmentManager fm) {
+        MyPagerAdapter(FragmentManager fm, UserPagingSource pagingSource) {
             super(fm);
+            this.pagingSource = pagingSource;
         }
 
         @Override
         public Fragment getItem(int position) {
             // getItem is called to instantiate the fragment for the given page.
             // Return a MyFragment (defined as a static inner class below).
-            return MyFragment.newInstance(position + 1);
+            // Only called by instantiateItem when the page has no fragment yet.
+            PAGES_CREATED.increment();
+            return MyFragment.newInstance(pagingSource.getUid(position), position);
         }
 
         @Override
-        public int getCount() {
-            int currentCount = userDao.getCount();
-            if(count != currentCount){
-                Log.i("COUNT", currentCount + " :: " + count);
-                count = currentCount;
-                notifyDataSetChanged();
-            }
+        public void destroyItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
+            super.destroyItem(container, position, object);
+            PAGES_DESTROYED.increment();
+        }
+
+        /**
+         * Keep a page only if its user is still at the same position. The fragments and saved
+         * states of the base adapter are indexed by position and never moved, so a page whose
+         * user moved is recreated at its new position instead.
+         */
+        @Override
+        public int getItemPosition(@NonNull Object object) {
+            MyFragment fragment = (MyFragment) object;
+            int position = pagingSource.indexOf(fragment.getUserId());
+            return position >= 0 && position == fragment.getPosition() ? POSITION_UNCHANGED : POSITION_NONE;
+        }
 
-            return count;
+        @Override
+        public int getCount() {
+            return pagingSource.size();
         }
     }
 }
@@ -0,0 +1,214 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of counters and latency histograms of the app's hot paths.<br>
+ * Metrics are created once, usually as static fields, and recording into them only updates
+ * atomic longs, so they can stay enabled in release builds. Latencies are kept in power of two
+ * microsecond buckets, reported percentiles are the upper bound of their bucket.<br>
+ * A text snapshot of every metric is periodically written to {@code files/metrics/metrics.txt}
+ * and shown by the debug metrics screen.
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    // Bucket i holds latencies below 2^i microseconds, the last one everything above.
+    private static final int BUCKET_COUNT = 32;
+
+    private static final Map<String, Counter> counters = new TreeMap<>();
+    private static final Map<String, Histogram> histograms = new TreeMap<>();
+
+    private static ScheduledExecutorService dumpExecutor;
+
+    private Metrics() {
+    }
+
+    public static final class Counter {
+
+        private final AtomicLong count = new AtomicLong();
+
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        public long get() {
+            return count.get();
+        }
+    }
+
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * Record the time elapsed since the given {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public void record(long micros) {
+            int bucket = micros <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+                // Retry until the largest value wins.
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return the upper bound, in microseconds, of the bucket holding the percentile.
+         */
+        public long getPercentileMicros(int percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (total * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return i == BUCKET_COUNT - 1 ? maxMicros.get() : Math.min(1L << i, maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+
+        public long getMeanMicros() {
+            long total = count.get();
+            return total == 0 ? 0 : totalMicros.get() / total;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros.get();
+        }
+    }
+
+    /**
+     * Get the counter of the given name, created on first use.
+     */
+    public static Counter counter(@NonNull String name) {
+        synchronized (counters) {
+            Counter counter = counters.get(name);
+            if (counter == null) {
+                counter = new Counter();
+                counters.put(name, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * Get the histogram of the given name, created on first use.
+     */
+    public static Histogram histogram(@NonNull String name) {
+        synchronized (histograms) {
+            Histogram histogram = histograms.get(name);
+            if (histogram == null) {
+                histogram = new Histogram();
+                histograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * @return one line per metric, sorted by name.
+     */
+    public static String snapshot() {
+        StringBuilder text = new StringBuilder();
+        synchronized (counters) {
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                text.append(entry.getKey()).append(" count=").append(entry.getValue().get()).append('\n');
+            }
+        }
+        synchronized (histograms) {
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                text.append(entry.getKey())
+                    .append(" count=").append(histogram.getCount())
+                    .append(" mean=").append(histogram.getMeanMicros()).append("us")
+                    .append(" p50=").append(histogram.getPercentileMicros(50)).append("us")
+                    .append(" p90=").append(histogram.getPercentileMicros(90)).append("us")
+                    .append(" p99=").append(histogram.getPercentileMicros(99)).append("us")
+                    .append(" max=").append(histogram.getMaxMicros()).append("us")
+                    .append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write a snapshot to the given file at a fixed period, on a background thread.
+     */
+    static synchronized void startPeriodicDump(@NonNull final File file, long period, @NonNull TimeUnit unit) {
+        if (dumpExecutor != null) {
+            return;
+        }
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        dumpExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump(file);
+            }
+        }, period, period, unit);
+    }
+
+    static void dump(@NonNull File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(TAG, "Unable to create " + parent);
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            try {
+                writer.write("# " + System.currentTimeMillis() + "\n");
+                writer.write(snapshot());
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to move " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write metrics to " + file, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package edu.kse.easycaller;
+
+/**
+ * Open addressing hash map from phone number keys to user ids, using primitive arrays only.<br>
+ * Keys are the longs built by {@link PhoneNumbers#toIndexKey(String)}, which are never 0, so 0
+ * marks an empty slot. Collisions are resolved by linear probing and removals shift the following
+ * entries back, so lookups never walk over deleted slots.<br>
+ * Not thread safe.
+ */
+final class PhoneKeyIndex {
+
+    static final int NO_USER = -1;
+
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private int[] uids;
+    private int size;
+
+    PhoneKeyIndex(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        uids = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the user owning the key, or {@link #NO_USER}.
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return uids[slot];
+            }
+        }
+        return NO_USER;
+    }
+
+    void put(long key, int uid) {
+        if (key == EMPTY) {
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        uids[slot] = uid;
+    }
+
+    /**
+     * Remove the key if it is owned by the given user.
+     */
+    void remove(long key, int uid) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (uids[slot] != uid) {
+            return;
+        }
+
+        // Shift back the entries that probed past the removed slot.
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                uids[hole] = uids[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldUids = uids;
+        keys = new long[capacity];
+        uids = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldUids[i]);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+@Entity(tableName = "phone_number",
+        foreignKeys = @ForeignKey(entity = User.class,
+                                  parentColumns = "uid",
+                                  childColumns = "user_id",
+                                  onDelete = ForeignKey.CASCADE),
+        indices = {@Index("user_id"), @Index("phone_key")})
+public class PhoneNumber {
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+
+    @ColumnInfo(name = "user_id")
+    private int userId;
+
+    @ColumnInfo(name = "number")
+    private String number;
+
+    // Normalized number used for lookups, see PhoneNumbers.
+    @ColumnInfo(name = "phone_key")
+    private String phoneKey;
+
+    public PhoneNumber() {
+    }
+
+    @Ignore
+    public PhoneNumber(String number) {
+        setNumber(number);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public void setNumber(String number) {
+        this.number = number;
+        this.phoneKey = PhoneNumbers.normalize(number);
+    }
+
+    public String getPhoneKey() {
+        return phoneKey;
+    }
+
+    public void setPhoneKey(String phoneKey) {
+        this.phoneKey = phoneKey;
+    }
+}
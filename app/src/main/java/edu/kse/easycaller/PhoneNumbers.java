@@ -0,0 +1,109 @@
+package edu.kse.easycaller;
+
+/**
+ * Normalizes phone numbers to an E.164 style key ("+218912345678"), so the same number written
+ * as "+218 91-234 5678", "00218912345678" or "091 234 5678" is stored and looked up the same way.
+ */
+public final class PhoneNumbers {
+
+    // Country calling code assumed for numbers dialed without one.
+    static final String DEFAULT_COUNTRY_CODE = "218";
+
+    // Numbers shorter than this are service or short codes and are kept as dialed.
+    private static final int MIN_SUBSCRIBER_LENGTH = 7;
+
+    // Longest number of digits that fits an index key.
+    private static final int MAX_INDEX_KEY_DIGITS = 16;
+
+    // Flags telling international keys from local ones with the same digits.
+    private static final long INTERNATIONAL_FLAG = 1L << 62;
+    private static final long LOCAL_FLAG = 1L << 61;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Normalize the given number using the {@link #DEFAULT_COUNTRY_CODE}.
+     *
+     * @return the normalized key, or null if the number contains no digit.
+     */
+    public static String normalize(String phoneNumber) {
+        return normalize(phoneNumber, DEFAULT_COUNTRY_CODE);
+    }
+
+    /**
+     * Normalize the given number.<br>
+     * Separators are dropped, "00" and the trunk prefix "0" are replaced by the international
+     * prefix and numbers without a country code get the given one.
+     *
+     * @param countryCode the country calling code, without "+", of numbers dialed locally.
+     * @return the normalized key, or null if the number contains no digit.
+     */
+    public static String normalize(String phoneNumber, String countryCode) {
+        if (phoneNumber == null) {
+            return null;
+        }
+
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        boolean international = false;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            // Character.digit also accepts Arabic-Indic digits.
+            int digit = Character.digit(c, 10);
+            if (digit >= 0) {
+                digits.append((char) ('0' + digit));
+            } else if (c == '+' && digits.length() == 0) {
+                international = true;
+            }
+        }
+
+        if (digits.length() == 0) {
+            return null;
+        }
+        if (international) {
+            return "+" + digits;
+        }
+        if (digits.length() < MIN_SUBSCRIBER_LENGTH) {
+            return digits.toString();
+        }
+        if (digits.charAt(0) == '0' && digits.length() > 1 && digits.charAt(1) == '0') {
+            return "+" + digits.substring(2);
+        }
+        if (digits.charAt(0) == '0') {
+            return "+" + countryCode + digits.substring(1);
+        }
+        if (digits.indexOf(countryCode) == 0 && digits.length() >= countryCode.length() + MIN_SUBSCRIBER_LENGTH + 2) {
+            // Dialed with the country code but without "+".
+            return "+" + digits;
+        }
+        return "+" + countryCode + digits;
+    }
+
+    /**
+     * Pack a normalized number into a long, to index numbers without allocating strings.
+     *
+     * @param phoneKey a number returned by {@link #normalize(String)}.
+     * @return the packed key, never 0, or 0 if the key can not be packed.
+     */
+    public static long toIndexKey(String phoneKey) {
+        if (phoneKey == null || phoneKey.isEmpty()) {
+            return 0;
+        }
+        boolean international = phoneKey.charAt(0) == '+';
+        int start = international ? 1 : 0;
+        if (phoneKey.length() - start > MAX_INDEX_KEY_DIGITS || phoneKey.length() == start) {
+            return 0;
+        }
+
+        long digits = 0;
+        for (int i = start; i < phoneKey.length(); i++) {
+            char c = phoneKey.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            digits = digits * 10 + (c - '0');
+        }
+        // Leading zeros of local numbers are kept apart by the length.
+        return (international ? INTERNATIONAL_FLAG : LOCAL_FLAG) | ((long) (phoneKey.length() - start) << 56) | digits;
+    }
+}
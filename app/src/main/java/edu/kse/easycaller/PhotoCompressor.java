@@ -0,0 +1,261 @@
+package edu.kse.easycaller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-encodes contact pictures to at most {@code photo_max_dimension} pixels at
+ * {@code photo_quality}, as WebP when {@code photo_use_webp} is set and the device supports it,
+ * JPEG otherwise.<br>
+ * Cropped pictures are compressed before being stored, and pictures stored before compression, or
+ * with other settings, are migrated once in the background by
+ * {@link #migrateAsync(PictureStore, Listener)}.
+ */
+public class PhotoCompressor {
+
+    private static final String TAG = "PhotoCompressor";
+
+    private static final String PREFERENCES_NAME = "photo_compressor";
+    private static final String KEY_MIGRATED_SETTINGS = "migrated_settings";
+
+    // Number of pictures waiting for a worker before the migration thread encodes them itself.
+    private static final int MIGRATION_QUEUE_SIZE = 4;
+
+    private final Context context;
+    private final int maxDimension;
+    private final int quality;
+    private final Bitmap.CompressFormat format;
+
+    /**
+     * Sizes and durations of the pictures encoded by a migration.
+     */
+    public static class Stats {
+
+        final AtomicInteger encodedCount = new AtomicInteger();
+        final AtomicLong bytesBefore = new AtomicLong();
+        final AtomicLong bytesAfter = new AtomicLong();
+        final AtomicLong encodeNanos = new AtomicLong();
+
+        public int getEncodedCount() {
+            return encodedCount.get();
+        }
+
+        public long getBytesSaved() {
+            return bytesBefore.get() - bytesAfter.get();
+        }
+
+        public long getAverageEncodeMillis() {
+            int count = encodedCount.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(encodeNanos.get() / count);
+        }
+
+        void add(long before, long after, long nanos) {
+            encodedCount.incrementAndGet();
+            bytesBefore.addAndGet(before);
+            bytesAfter.addAndGet(after);
+            encodeNanos.addAndGet(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return encodedCount.get() + " pictures, " + getBytesSaved() + " bytes saved, "
+                   + getAverageEncodeMillis() + " ms per picture";
+        }
+    }
+
+    /**
+     * Receives the result of a migration on the main thread.
+     */
+    public interface Listener {
+        void onMigrationComplete(Stats stats);
+    }
+
+    PhotoCompressor(@NonNull Context context, int maxDimension, int quality, boolean useWebP) {
+        this.context = context.getApplicationContext();
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        // WebP encoding with transparency is reliable from API 18 on.
+        this.format = useWebP && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                      ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+    }
+
+    /**
+     * Create a compressor with the settings of the app resources.
+     */
+    static PhotoCompressor fromResources(@NonNull Context context) {
+        Resources resources = context.getResources();
+        return new PhotoCompressor(context, resources.getInteger(R.integer.photo_max_dimension),
+                                   resources.getInteger(R.integer.photo_quality),
+                                   resources.getBoolean(R.bool.photo_use_webp));
+    }
+
+    /**
+     * @return the file extension of compressed pictures.
+     */
+    String getExtension() {
+        return format == Bitmap.CompressFormat.WEBP ? ".webp" : ".jpg";
+    }
+
+    /**
+     * Re-encode the given picture into the destination file.
+     *
+     * @return false if the picture can not be decoded, the destination is left untouched then.
+     */
+    boolean compress(@NonNull File source, @NonNull File destination) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ContactPhotoLoader.calculateInSampleSize(options.outWidth, options.outHeight,
+                                                                        maxDimension, maxDimension);
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if (bitmap == null) {
+            return false;
+        }
+        bitmap = scaleDown(bitmap);
+
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(destination));
+        try {
+            if (!bitmap.compress(format, quality, stream)) {
+                throw new IOException("Unable to encode " + source);
+            }
+        } finally {
+            stream.close();
+            bitmap.recycle();
+        }
+        return true;
+    }
+
+    private Bitmap scaleDown(Bitmap bitmap) {
+        int longestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longestSide <= maxDimension) {
+            return bitmap;
+        }
+        float scale = (float) maxDimension / longestSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                                                  Math.round(bitmap.getHeight() * scale), true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    /**
+     * Re-encode every picture of the store in the background, unless they have already been
+     * migrated with the current settings. Pictures only get replaced when encoding makes them
+     * smaller, and are then stored under the name of their new content, see
+     * {@link PictureStore#replaceNow}.
+     *
+     * @param listener receives the stats of the migration, may be null.
+     */
+    void migrateAsync(@NonNull final PictureStore store, @Nullable final Listener listener) {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        final String settings = maxDimension + ":" + quality + ":" + format;
+        if (settings.equals(preferences.getString(KEY_MIGRATED_SETTINGS, null))) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Stats stats = migrate(store);
+                preferences.edit().putString(KEY_MIGRATED_SETTINGS, settings).apply();
+                Log.i(TAG, "Migrated " + stats);
+                if (listener != null) {
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onMigrationComplete(stats);
+                        }
+                    });
+                }
+            }
+        }, "photo-migration").start();
+    }
+
+    private Stats migrate(final PictureStore store) {
+        final Stats stats = new Stats();
+        File[] files = store.getDirectory().listFiles();
+        if (files == null) {
+            return stats;
+        }
+
+        // A full queue makes the migration thread encode the next picture itself, so at most
+        // a few pictures are waiting at any time.
+        int threadCount = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                                                            new ArrayBlockingQueue<Runnable>(MIGRATION_QUEUE_SIZE),
+                                                            new ThreadPoolExecutor.CallerRunsPolicy());
+        for (final File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || name.startsWith("tmp-") || name.endsWith(".tmp")
+                || name.equals(PictureStore.PICKED_FILE_NAME)) {
+                continue;
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    migrate(store, file, stats);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return stats;
+    }
+
+    private void migrate(PictureStore store, File file, Stats stats) {
+        File encoded = new File(file.getPath() + ".tmp");
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            if (!compress(file, encoded)) {
+                return;
+            }
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+            long before = file.length();
+            long after = encoded.length();
+            if (after < before) {
+                File stored = store.replaceNow(file, encoded, getExtension());
+                stats.add(before, after, nanos);
+                Log.v(TAG, "Encoded " + file.getName() + " as " + stored.getName() + " in "
+                           + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, " + before + " -> " + after + " bytes");
+            } else {
+                stats.add(before, before, nanos);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode " + file, e);
+        } finally {
+            encoded.delete();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package edu.kse.easycaller;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.media.ExifInterface;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies a picked picture into the app's pictures directory, off the main thread.<br>
+ * The picture is streamed from its content URI, so it works with any provider instead of relying
+ * on a file path in the media store, and pictures larger than {@link #MAX_PICTURE_SIZE} are
+ * downscaled while copying, keeping their EXIF orientation so the crop screen shows them upright.
+ * The copy is written to a temporary file first, so a cancelled or failed import never leaves a
+ * partial picture behind.
+ */
+public class PictureImporter {
+
+    private static final String TAG = "PictureImporter";
+
+    // Longest side, in pixels, of imported pictures.
+    static final int MAX_PICTURE_SIZE = 2048;
+
+    private static final int JPEG_QUALITY = 90;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ContentResolver resolver;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Receives the state of an import on the main thread. Nothing is delivered once the import
+     * has been cancelled.
+     */
+    public interface Listener {
+
+        /**
+         * @param totalBytes the size of the picture, or -1 if the provider does not know it.
+         */
+        void onProgress(long readBytes, long totalBytes);
+
+        void onComplete(File file);
+
+        void onError(IOException e);
+    }
+
+    /**
+     * A running import.
+     */
+    public static class Task {
+
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    PictureImporter(@NonNull Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Copy the picture at the given URI to the destination file.
+     */
+    public Task importPicture(@NonNull final Uri source, @NonNull final File destination, @NonNull final Listener listener) {
+        final Task task = new Task();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled()) {
+                    return;
+                }
+                File tmp = new File(destination.getPath() + ".tmp");
+                try {
+                    copy(source, tmp, task, listener);
+                    if (!tmp.renameTo(destination)) {
+                        // Some file systems do not replace an existing file on rename.
+                        destination.delete();
+                        if (!tmp.renameTo(destination)) {
+                            throw new IOException("Unable to move " + tmp + " to " + destination);
+                        }
+                    }
+                    deliverComplete(task, listener, destination);
+                } catch (InterruptedIOException e) {
+                    tmp.delete();
+                    Log.v(TAG, "Import of " + source + " cancelled");
+                } catch (IOException | SecurityException e) {
+                    tmp.delete();
+                    Log.e(TAG, "Unable to import " + source, e);
+                    deliverError(task, listener, e instanceof IOException ? (IOException) e : new IOException(e));
+                }
+            }
+        });
+        return task;
+    }
+
+    private void copy(Uri source, File destination, Task task, Listener listener) throws IOException {
+        File parent = destination.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        long totalBytes = getLength(source);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream stream = openStream(source);
+        try {
+            BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+
+        boolean downscale = Math.max(options.outWidth, options.outHeight) > MAX_PICTURE_SIZE;
+        int orientation = downscale ? readOrientation(source) : ExifInterface.ORIENTATION_UNDEFINED;
+
+        stream = new ProgressInputStream(openStream(source), totalBytes, task, listener);
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+        try {
+            if (downscale) {
+                // Decode at the smallest power of two still covering the maximum size.
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = ContactPhotoLoader.calculateInSampleSize(
+                        options.outWidth, options.outHeight, MAX_PICTURE_SIZE, MAX_PICTURE_SIZE);
+                Bitmap bitmap = BitmapFactory.decodeStream(stream, null, options);
+                if (bitmap == null) {
+                    throw new IOException("Unable to decode " + source);
+                }
+                try {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+                } finally {
+                    bitmap.recycle();
+                }
+            } else {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+        } finally {
+            stream.close();
+            output.close();
+        }
+
+        if (orientation != ExifInterface.ORIENTATION_UNDEFINED && orientation != ExifInterface.ORIENTATION_NORMAL) {
+            // The encoded bitmap has no EXIF, carry the orientation of the original over.
+            ExifInterface exif = new ExifInterface(destination.getPath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+            exif.saveAttributes();
+        }
+    }
+
+    private int readOrientation(Uri source) throws IOException {
+        InputStream stream = openStream(source);
+        try {
+            return new ExifInterface(stream).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                                                             ExifInterface.ORIENTATION_UNDEFINED);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private long getLength(Uri source) {
+        if (source.getScheme() == null || "file".equals(source.getScheme())) {
+            return new File(source.getPath()).length();
+        }
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = resolver.openAssetFileDescriptor(source, "r");
+            return descriptor != null ? descriptor.getLength() : -1;
+        } catch (IOException | SecurityException e) {
+            return -1;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private InputStream openStream(Uri source) throws IOException {
+        if (source.getScheme() == null || "file".equals(source.getScheme())) {
+            return new FileInputStream(source.getPath());
+        }
+        InputStream stream = resolver.openInputStream(source);
+        if (stream == null) {
+            throw new IOException("Unable to open " + source);
+        }
+        return stream;
+    }
+
+    private void deliverComplete(final Task task, final Listener listener, final File file) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.isCancelled()) {
+                    listener.onComplete(file);
+                }
+            }
+        });
+    }
+
+    private void deliverError(final Task task, final Listener listener, final IOException e) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.isCancelled()) {
+                    listener.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports the bytes read to the listener and stops reading once the task is cancelled.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+
+        // Minimum number of bytes between two progress reports.
+        private static final int REPORT_INTERVAL = 64 * 1024;
+
+        private final long totalBytes;
+        private final Task task;
+        private final Listener listener;
+
+        private long readBytes;
+        private long reportedBytes;
+
+        ProgressInputStream(InputStream in, long totalBytes, Task task, Listener listener) {
+            super(in);
+            this.totalBytes = totalBytes;
+            this.task = task;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            int b = super.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            checkCancelled();
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                onRead(read);
+            }
+            return read;
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (task.isCancelled()) {
+                throw new InterruptedIOException("Import cancelled");
+            }
+        }
+
+        private void onRead(int count) {
+            readBytes += count;
+            if (readBytes - reportedBytes < REPORT_INTERVAL) {
+                return;
+            }
+            reportedBytes = readBytes;
+            final long read = readBytes;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!task.isCancelled()) {
+                        listener.onProgress(read, totalBytes);
+                    }
+                }
+            });
+        }
+    }
+}
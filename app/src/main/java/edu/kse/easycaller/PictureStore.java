@@ -0,0 +1,213 @@
+package edu.kse.easycaller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores contact pictures in {@code files/pictures} under the hash of their content.<br>
+ * Pictures are re-encoded by a {@link PhotoCompressor} first, if one is given. Names never collide
+ * whatever users are added or deleted meanwhile, and storing the same picture twice keeps a single
+ * file. Pictures no user refers to anymore are deleted by {@link #sweep()}.
+ */
+public class PictureStore {
+
+    private static final String TAG = "PictureStore";
+
+    private static final String TEMP_EXTENSION = ".jpg";
+
+    // Picked picture waiting to be cropped, copied in by PictureImporter, never a stored picture.
+    static final String PICKED_FILE_NAME = "picked.jpg";
+
+    // Files younger than this are never swept, they may belong to a user being added.
+    static final long SWEEP_GRACE_MILLIS = 60 * 60 * 1000;
+
+    private final File directory;
+    private final UserDao userDao;
+    private final PhotoCompressor compressor;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param compressor re-encodes pictures before they are stored, null to store them as given.
+     */
+    PictureStore(@NonNull File directory, @NonNull UserDao userDao, @Nullable PhotoCompressor compressor) {
+        this.directory = directory;
+        this.userDao = userDao;
+        this.compressor = compressor;
+    }
+
+    /**
+     * @return a new file, with a unique name, to write a picture to before storing it.
+     */
+    File newTempFile() {
+        directory.mkdirs();
+        return new File(directory, "tmp-" + UUID.randomUUID() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Move the given picture to its content addressed name, or drop it if the same picture is
+     * already stored. The callback receives the stored file, or null on error.
+     */
+    public void store(@NonNull final File picture, @NonNull final UserRepository.Callback<File> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File stored;
+                try {
+                    stored = storeNow(picture);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to store " + picture, e);
+                    stored = null;
+                }
+                final File result = stored;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Delete, in the background, every picture no user refers to.
+     */
+    public void sweep() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int deleted = sweepNow(userDao.getImageUris(), System.currentTimeMillis());
+                Log.i(TAG, "Deleted " + deleted + " unused pictures");
+            }
+        });
+    }
+
+    File storeNow(File picture) throws IOException {
+        String extension = TEMP_EXTENSION;
+        if (compressor != null) {
+            File compressed = newTempFile();
+            try {
+                if (compressor.compress(picture, compressed)) {
+                    picture.delete();
+                    picture = compressed;
+                    extension = compressor.getExtension();
+                }
+            } finally {
+                if (picture != compressed) {
+                    compressed.delete();
+                }
+            }
+        }
+
+        return moveToContentName(picture, extension);
+    }
+
+    /**
+     * Replace a stored picture by its re-encoded version, stored under the hash of its new
+     * content, and point the users of the old picture to it.
+     *
+     * @return the stored file.
+     */
+    File replaceNow(@NonNull File original, @NonNull File encoded, @NonNull String extension) throws IOException {
+        File stored = moveToContentName(encoded, extension);
+        if (!stored.equals(original)) {
+            String path = original.getAbsolutePath();
+            userDao.replaceImageUri(path, "file://" + path, stored.getAbsolutePath());
+            original.delete();
+        }
+        return stored;
+    }
+
+    /**
+     * Re-encode the stored pictures in the background with the current compressor settings.
+     *
+     * @param listener receives the stats of the migration, may be null.
+     */
+    void migrateAsync(@Nullable PhotoCompressor.Listener listener) {
+        if (compressor != null) {
+            compressor.migrateAsync(this, listener);
+        }
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    private File moveToContentName(File picture, String extension) throws IOException {
+        File stored = new File(directory, hash(picture) + extension);
+        if (stored.exists()) {
+            picture.delete();
+            // Keep a reused picture out of the sweeper's reach as if it were new.
+            stored.setLastModified(System.currentTimeMillis());
+        } else if (!picture.renameTo(stored)) {
+            throw new IOException("Unable to move " + picture + " to " + stored);
+        }
+        return stored;
+    }
+
+    /**
+     * @param imageUris the picture URIs of every user.
+     * @return the number of deleted pictures.
+     */
+    int sweepNow(Collection<String> imageUris, long now) {
+        Set<String> referenced = new HashSet<>(imageUris.size());
+        for (String imageUri : imageUris) {
+            referenced.add(imageUri.startsWith("file://") ? imageUri.substring("file://".length()) : imageUri);
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            if (file.isFile() && !referenced.contains(file.getAbsolutePath())
+                    && now - file.lastModified() > SWEEP_GRACE_MILLIS && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream stream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A user as exchanged with the central directory, either its latest state or a tombstone.
+ */
+public class RemoteUser {
+
+    @NonNull
+    public final String remoteId;
+
+    // Version of the change on the side that sent it.
+    public final long version;
+
+    public final boolean deleted;
+
+    @Nullable
+    public final String firstName;
+    @Nullable
+    public final String lastName;
+    @Nullable
+    public final String company;
+
+    // All numbers, the first one being the primary number.
+    @NonNull
+    public final List<String> phoneNumbers;
+
+    public RemoteUser(@NonNull String remoteId, long version, @Nullable String firstName, @Nullable String lastName,
+                      @Nullable String company, @NonNull List<String> phoneNumbers) {
+        this(remoteId, version, false, firstName, lastName, company, phoneNumbers);
+    }
+
+    private RemoteUser(@NonNull String remoteId, long version, boolean deleted, String firstName, String lastName,
+                       String company, @NonNull List<String> phoneNumbers) {
+        this.remoteId = remoteId;
+        this.version = version;
+        this.deleted = deleted;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.company = company;
+        this.phoneNumbers = phoneNumbers;
+    }
+
+    public static RemoteUser tombstone(@NonNull String remoteId, long version) {
+        return new RemoteUser(remoteId, version, true, null, null, null, Collections.<String>emptyList());
+    }
+}
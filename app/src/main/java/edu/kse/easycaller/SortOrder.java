@@ -0,0 +1,12 @@
+package edu.kse.easycaller;
+
+/**
+ * Orders the pager can show users in, each read from an index of the User table.
+ */
+public enum SortOrder {
+    LAST_NAME,
+    FIRST_NAME,
+    COMPANY,
+    // Order users were added in, without sections.
+    DATE_ADDED
+}
@@ -0,0 +1,166 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * User ids in pager order, with the alphabetical sections they fall in.<br>
+ * Built off the main thread from an ordered {@link UserDao} query, so the pager resolves a
+ * position to its uid, a uid to its position and a section to its first position without
+ * touching the database. Jumping to a section is an array lookup, no page in between is loaded.
+ * <br>
+ * Sections are labelled by the upper case initial. Should users sharing a label not be next to
+ * each other, as the case-insensitive order only folds ASCII letters, their positions still map
+ * to one section, which jumps to its first run.
+ */
+public final class SortedIds {
+
+    // Section of users whose sorted column is empty or does not start with a letter.
+    static final String OTHER_SECTION = "#";
+
+    static final SortedIds EMPTY = new SortedIds(new int[0], new String[0], new int[0], new int[0], new int[0]);
+
+    private final int[] uids;
+
+    // (uid << 32 | position), sorted, to find the position of a uid by binary search.
+    private final long[] positionsByUid;
+
+    // Section labels and the first position of each.
+    private final String[] sections;
+    private final int[] sectionPositions;
+
+    // First position and section of every run of users sharing a section.
+    private final int[] runStarts;
+    private final int[] runSections;
+
+    private SortedIds(int[] uids, String[] sections, int[] sectionPositions, int[] runStarts, int[] runSections) {
+        this.uids = uids;
+        this.sections = sections;
+        this.sectionPositions = sectionPositions;
+        this.runStarts = runStarts;
+        this.runSections = runSections;
+
+        positionsByUid = new long[uids.length];
+        for (int i = 0; i < uids.length; i++) {
+            positionsByUid[i] = ((long) uids[i] << 32) | i;
+        }
+        Arrays.sort(positionsByUid);
+    }
+
+    /**
+     * Ids in the given order, without sections.
+     */
+    static SortedIds fromIds(@NonNull List<Integer> ids) {
+        int[] uids = new int[ids.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = ids.get(i);
+        }
+        return new SortedIds(uids, new String[0], new int[0], new int[0], new int[0]);
+    }
+
+    /**
+     * Ids in the given order, sectioned by the initial of their sort keys.
+     */
+    static SortedIds fromSortKeys(@NonNull List<UserSortKey> keys) {
+        int[] uids = new int[keys.size()];
+        List<String> sections = new ArrayList<>();
+        List<Integer> sectionPositions = new ArrayList<>();
+        Map<String, Integer> sectionIndexes = new HashMap<>();
+        int[] runStarts = new int[16];
+        int[] runSections = new int[16];
+        int runCount = 0;
+
+        String previous = null;
+        for (int i = 0; i < uids.length; i++) {
+            UserSortKey key = keys.get(i);
+            uids[i] = key.uid;
+            String section = getSection(key.initial);
+            if (section.equals(previous)) {
+                continue;
+            }
+            previous = section;
+
+            Integer index = sectionIndexes.get(section);
+            if (index == null) {
+                index = sections.size();
+                sectionIndexes.put(section, index);
+                sections.add(section);
+                sectionPositions.add(i);
+            }
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runSections = Arrays.copyOf(runSections, runCount * 2);
+            }
+            runStarts[runCount] = i;
+            runSections[runCount] = index;
+            runCount++;
+        }
+
+        int[] positions = new int[sectionPositions.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = sectionPositions.get(i);
+        }
+        return new SortedIds(uids, sections.toArray(new String[sections.size()]), positions,
+                             Arrays.copyOf(runStarts, runCount), Arrays.copyOf(runSections, runCount));
+    }
+
+    static String getSection(String initial) {
+        if (initial == null || initial.isEmpty() || !Character.isLetter(initial.codePointAt(0))) {
+            return OTHER_SECTION;
+        }
+        return initial.toUpperCase(Locale.getDefault());
+    }
+
+    public int size() {
+        return uids.length;
+    }
+
+    public int getUid(int position) {
+        return uids[position];
+    }
+
+    /**
+     * @return the position of the given user, or -1 if it is not in the list.
+     */
+    public int indexOf(int uid) {
+        int index = Arrays.binarySearch(positionsByUid, (long) uid << 32);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index < positionsByUid.length && (int) (positionsByUid[index] >>> 32) == uid) {
+            return (int) positionsByUid[index];
+        }
+        return -1;
+    }
+
+    /**
+     * @return the section labels in order, empty if the order has no sections.
+     */
+    public String[] getSections() {
+        return sections;
+    }
+
+    public int getPositionForSection(int section) {
+        return sectionPositions[section];
+    }
+
+    /**
+     * @return the section of the given position, or -1 if the order has no sections.
+     */
+    public int getSectionForPosition(int position) {
+        if (runStarts.length == 0) {
+            return -1;
+        }
+        int run = Arrays.binarySearch(runStarts, position);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return runSections[Math.max(run, 0)];
+    }
+}
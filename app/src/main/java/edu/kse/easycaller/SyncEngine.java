@@ -0,0 +1,197 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Syncs users with the central directory through a {@link SyncTransport}, moving only changes.
+ * <br>
+ * Pushes send the latest state of the users in the user_change log after the last pushed version,
+ * then drop those log entries and the synced tombstones. Pulls apply the directory's changes after
+ * the last pulled version in one transaction per batch, together with the new cursor, so a sync
+ * stopped halfway resumes where it stopped. When both sides changed a user, the directory wins.
+ * <br>
+ * {@link #sync()} blocks, it must be called off the main thread.
+ */
+public class SyncEngine {
+
+    private static final String TAG = "SyncEngine";
+
+    // Number of changes pushed or pulled at once.
+    static final int BATCH_SIZE = 200;
+
+    static final String PUSHED_VERSION = "pushed_version";
+    static final String PULLED_VERSION = "pulled_version";
+
+    private final AppDatabase database;
+    private final UserDao userDao;
+    private final SyncTransport transport;
+    private final CallerIdIndex callerIdIndex;
+
+    /**
+     * Counts of the changes moved by one sync.
+     */
+    public static class Result {
+        public int pushed;
+        public int pulled;
+
+        @Override
+        public String toString() {
+            return pushed + " pushed, " + pulled + " pulled";
+        }
+    }
+
+    SyncEngine(@NonNull AppDatabase database, @NonNull SyncTransport transport, @NonNull CallerIdIndex callerIdIndex) {
+        this.database = database;
+        this.userDao = database.userDao();
+        this.transport = transport;
+        this.callerIdIndex = callerIdIndex;
+    }
+
+    public synchronized Result sync() throws IOException {
+        Result result = new Result();
+        result.pushed = push();
+        result.pulled = pull();
+        Log.i(TAG, "Synced " + result);
+        return result;
+    }
+
+    private int push() throws IOException {
+        int pushed = 0;
+        while (true) {
+            List<UserChange> changes = userDao.getChangesSince(getState(PUSHED_VERSION), BATCH_SIZE);
+            if (changes.isEmpty()) {
+                return pushed;
+            }
+
+            // A user changed several times is sent once, with its latest state.
+            Set<Integer> uids = new LinkedHashSet<>();
+            for (UserChange change : changes) {
+                uids.add(change.getUserId());
+            }
+            int[] ids = new int[uids.size()];
+            int i = 0;
+            for (int uid : uids) {
+                ids[i++] = uid;
+            }
+            final long lastVersion = changes.get(changes.size() - 1).getVersion();
+
+            List<RemoteUser> remoteUsers = new ArrayList<>(ids.length);
+            for (UserWithPhoneNumbers user : userDao.getForSync(ids)) {
+                remoteUsers.add(toRemote(user, lastVersion));
+            }
+            transport.push(remoteUsers);
+            pushed += remoteUsers.size();
+
+            database.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    userDao.setSyncState(new SyncState(PUSHED_VERSION, lastVersion));
+                    userDao.deleteChangesUpTo(lastVersion);
+                    userDao.purgeTombstones();
+                }
+            });
+        }
+    }
+
+    private int pull() throws IOException {
+        int pulled = 0;
+        SyncTransport.Batch batch;
+        do {
+            batch = transport.pull(getState(PULLED_VERSION), BATCH_SIZE);
+            apply(batch);
+            pulled += batch.changes.size();
+        } while (batch.hasMore && !batch.changes.isEmpty());
+        return pulled;
+    }
+
+    /**
+     * Apply the batch and move the pull cursor in a single transaction, then update the caller id
+     * index with the numbers that changed.
+     */
+    private void apply(final SyncTransport.Batch batch) {
+        final List<PhoneNumber> added = new ArrayList<>();
+        final List<Integer> removedUids = new ArrayList<>();
+        final List<List<String>> removedKeys = new ArrayList<>();
+
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (RemoteUser remoteUser : batch.changes) {
+                    User user = userDao.getByRemoteId(remoteUser.remoteId);
+                    if (user != null) {
+                        removedUids.add(user.getUid());
+                        removedKeys.add(userDao.getPhoneKeys(user.getUid()));
+                        // The directory wins over local changes not pushed yet.
+                        userDao.deleteChanges(user.getUid());
+                        userDao.deletePhoneNumbers(user.getUid());
+                    }
+                    if (remoteUser.deleted) {
+                        if (user != null) {
+                            userDao.markDeleted(user.getUid());
+                        }
+                        continue;
+                    }
+
+                    if (user == null) {
+                        user = new User();
+                        user.setRemoteId(remoteUser.remoteId);
+                    }
+                    user.setFirstName(remoteUser.firstName);
+                    user.setLastName(remoteUser.lastName);
+                    user.setCompany(remoteUser.company);
+                    user.setPhoneNumber(remoteUser.phoneNumbers.isEmpty() ? null : remoteUser.phoneNumbers.get(0));
+                    user.setDeleted(false);
+                    if (user.getUid() == 0) {
+                        user.setUid((int) userDao.insertUser(user));
+                    } else {
+                        userDao.updateUser(user);
+                    }
+
+                    List<PhoneNumber> phoneNumbers = new ArrayList<>(remoteUser.phoneNumbers.size());
+                    for (String number : remoteUser.phoneNumbers) {
+                        PhoneNumber phoneNumber = new PhoneNumber(number);
+                        phoneNumber.setUserId(user.getUid());
+                        phoneNumbers.add(phoneNumber);
+                    }
+                    userDao.insertPhoneNumbers(phoneNumbers);
+                    added.addAll(phoneNumbers);
+                }
+                userDao.setSyncState(new SyncState(PULLED_VERSION, batch.nextVersion));
+            }
+        });
+
+        for (int i = 0; i < removedUids.size(); i++) {
+            callerIdIndex.removeAll(removedKeys.get(i), removedUids.get(i));
+        }
+        callerIdIndex.addAll(added);
+    }
+
+    private long getState(String name) {
+        Long value = userDao.getSyncState(name);
+        return value != null ? value : 0;
+    }
+
+    private static RemoteUser toRemote(UserWithPhoneNumbers user, long version) {
+        if (user.user.isDeleted()) {
+            return RemoteUser.tombstone(user.user.getRemoteId(), version);
+        }
+        List<String> numbers = new ArrayList<>(user.phoneNumbers.size());
+        for (PhoneNumber phoneNumber : user.phoneNumbers) {
+            // Keep the primary number first.
+            if (phoneNumber.getNumber() != null && phoneNumber.getNumber().equals(user.user.getPhoneNumber())) {
+                numbers.add(0, phoneNumber.getNumber());
+            } else {
+                numbers.add(phoneNumber.getNumber());
+            }
+        }
+        return new RemoteUser(user.user.getRemoteId(), version, user.user.getFirstName(),
+                              user.user.getLastName(), user.user.getCompany(), numbers);
+    }
+}
@@ -0,0 +1,47 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+/**
+ * A named sync cursor, stored in the database so it moves in the same transaction as the changes
+ * it covers.
+ */
+@Entity(tableName = "sync_state")
+public class SyncState {
+    @PrimaryKey
+    @NonNull
+    private String name = "";
+
+    @ColumnInfo(name = "value")
+    private long value;
+
+    public SyncState() {
+    }
+
+    @Ignore
+    public SyncState(@NonNull String name, long value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public void setName(@NonNull String name) {
+        this.name = name;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,46 @@
+package edu.kse.easycaller;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connection to the central directory used by {@link SyncEngine}.<br>
+ * Implementations only move changes, they never see the whole table: pushes carry the users
+ * changed locally and pulls return the changes made after a version.
+ */
+public interface SyncTransport {
+
+    /**
+     * Changes returned by one pull.
+     */
+    class Batch {
+
+        @NonNull
+        public final List<RemoteUser> changes;
+
+        // Version to pull from next time, the highest version of the changes.
+        public final long nextVersion;
+
+        public final boolean hasMore;
+
+        public Batch(@NonNull List<RemoteUser> changes, long nextVersion, boolean hasMore) {
+            this.changes = changes;
+            this.nextVersion = nextVersion;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * Send users changed locally, in version order. Must be idempotent, a push is sent again if
+     * the app stops before recording it.
+     */
+    void push(@NonNull List<RemoteUser> changes) throws IOException;
+
+    /**
+     * Get at most the given number of changes made after the given version, in version order.
+     */
+    @NonNull
+    Batch pull(long sinceVersion, int limit) throws IOException;
+}
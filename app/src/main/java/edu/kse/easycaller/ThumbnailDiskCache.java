@@ -0,0 +1,200 @@
+package edu.kse.easycaller;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Second level cache of contact pictures, storing pre-scaled thumbnails on disk.<br>
+ * Thumbnails are written next to the original pictures in {@code files/pictures/thumbs} at a few
+ * fixed sizes, so pages can be shown without decoding the full picture. The directory is
+ * bounded to {@link #MAX_CACHE_BYTES}, evicting the least recently used thumbnails first.
+ */
+public class ThumbnailDiskCache {
+
+    private static final String TAG = "ThumbnailDiskCache";
+
+    // Sizes, in pixels of the longest side, thumbnails are stored at. Stored pictures are at most
+    // photo_max_dimension, bigger targets decode them directly.
+    static final int[] THUMBNAIL_SIZES = {128, 256, 512};
+
+    // Maximum number of bytes used by all thumbnails.
+    private static final long MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    private static final int JPEG_QUALITY = 85;
+
+    private final File directory;
+
+    // Total size of the cached thumbnails, -1 until the directory has been scanned.
+    private long totalBytes = -1;
+
+    ThumbnailDiskCache(@NonNull File picturesDir) {
+        this.directory = new File(picturesDir, "thumbs");
+    }
+
+    /**
+     * @return the smallest thumbnail size able to show a picture of the given size without
+     * upscaling, or 0 if the picture is larger than every thumbnail.
+     */
+    static int sizeFor(int targetSize) {
+        for (int size : THUMBNAIL_SIZES) {
+            if (size >= targetSize) {
+                return size;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the thumbnail of the given picture, if it exists and is newer than the picture.
+     */
+    @Nullable
+    public synchronized File get(@NonNull String imageUri, int size) {
+        File thumbnail = getFile(imageUri, size);
+        if (!thumbnail.exists()) {
+            return null;
+        }
+
+        File original = getOriginalFile(imageUri);
+        if (original != null && original.lastModified() > thumbnail.lastModified()) {
+            // The picture has been replaced since the thumbnail was written.
+            remove(thumbnail);
+            return null;
+        }
+
+        // Keep the thumbnail at the end of the eviction order.
+        thumbnail.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+    }
+
+    /**
+     * Store the thumbnail of the given picture, evicting old thumbnails if the cache is full.
+     */
+    public synchronized void put(@NonNull String imageUri, int size, @NonNull Bitmap bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Unable to create " + directory);
+            return;
+        }
+        ensureTotalBytes();
+
+        File thumbnail = getFile(imageUri, size);
+        remove(thumbnail);
+
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(thumbnail);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + thumbnail, e);
+            thumbnail.delete();
+            return;
+        } finally {
+            closeQuietly(stream);
+        }
+
+        totalBytes += thumbnail.length();
+        trimToSize();
+    }
+
+    /**
+     * Delete every thumbnail of the given picture, used when a contact's picture changes.
+     */
+    public synchronized void invalidate(@NonNull String imageUri) {
+        for (int size : THUMBNAIL_SIZES) {
+            remove(getFile(imageUri, size));
+        }
+    }
+
+    private File getFile(String imageUri, int size) {
+        return new File(directory, getKey(imageUri) + "_" + size + ".jpg");
+    }
+
+    private static String getKey(String imageUri) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(imageUri.getBytes("UTF-8"))) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(imageUri.hashCode());
+        }
+    }
+
+    @Nullable
+    private static File getOriginalFile(String imageUri) {
+        if (imageUri.startsWith("file://")) {
+            return new File(imageUri.substring("file://".length()));
+        }
+        if (imageUri.startsWith(File.separator)) {
+            return new File(imageUri);
+        }
+        return null;
+    }
+
+    private void remove(File thumbnail) {
+        if (thumbnail.exists()) {
+            long length = thumbnail.length();
+            if (thumbnail.delete() && totalBytes >= 0) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private void ensureTotalBytes() {
+        if (totalBytes >= 0) {
+            return;
+        }
+        totalBytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                totalBytes += file.length();
+            }
+        }
+    }
+
+    private void trimToSize() {
+        if (totalBytes <= MAX_CACHE_BYTES) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (totalBytes <= MAX_CACHE_BYTES) {
+                break;
+            }
+            remove(file);
+        }
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
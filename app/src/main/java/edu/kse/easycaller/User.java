@@ -2,9 +2,12 @@ package edu.kse.easycaller;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 
-@Entity
+@Entity(indices = {@Index({"last_name", "first_name"}), @Index({"first_name", "last_name"}),
+                   @Index({"company", "last_name", "first_name"}), @Index("phone_number"), @Index("phone_key"),
+                   @Index(value = "remote_id", unique = true)})
 public class User {
     @PrimaryKey(autoGenerate = true)
     private int uid;
@@ -18,12 +21,24 @@ public class User {
     @ColumnInfo(name = "phone_number")
     private String phoneNumber;
 
+    // Normalized phone number used for lookups, see PhoneNumbers.
+    @ColumnInfo(name = "phone_key")
+    private String phoneKey;
+
     @ColumnInfo(name = "image_uri")
     private String imageUri;
 
     @ColumnInfo(name = "company")
     private String company;
 
+    // Id shared with the central directory, see SyncEngine.
+    @ColumnInfo(name = "remote_id")
+    private String remoteId;
+
+    // Deleted users are kept as tombstones until their deletion has been synced.
+    @ColumnInfo(name = "deleted")
+    private boolean deleted;
+
     public int getUid() {
         return uid;
     }
@@ -54,6 +69,15 @@ public class User {
 
     public void setPhoneNumber(String phoneNumber) {
         this.phoneNumber = phoneNumber;
+        this.phoneKey = PhoneNumbers.normalize(phoneNumber);
+    }
+
+    public String getPhoneKey() {
+        return phoneKey;
+    }
+
+    public void setPhoneKey(String phoneKey) {
+        this.phoneKey = phoneKey;
     }
 
     public String getImageUri() {
@@ -71,4 +95,20 @@ public class User {
     public void setCompany(String company) {
         this.company = company;
     }
+
+    public String getRemoteId() {
+        return remoteId;
+    }
+
+    public void setRemoteId(String remoteId) {
+        this.remoteId = remoteId;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
 }
@@ -0,0 +1,44 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * A local change of a user not synced yet.<br>
+ * Versions only ever grow, so the changes to push are the ones after the last pushed version.
+ */
+@Entity(tableName = "user_change", indices = {@Index("user_id")})
+public class UserChange {
+    @PrimaryKey(autoGenerate = true)
+    private long version;
+
+    @ColumnInfo(name = "user_id")
+    private int userId;
+
+    public UserChange() {
+    }
+
+    @Ignore
+    public UserChange(int userId) {
+        this.userId = userId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+}
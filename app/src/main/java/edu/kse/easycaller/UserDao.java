@@ -1,39 +1,258 @@
 package edu.kse.easycaller;
 
 import android.arch.persistence.room.Dao;
-import android.arch.persistence.room.Delete;
 import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.db.SupportSQLiteQuery;
 import android.arch.persistence.room.Query;
+import android.arch.persistence.room.RawQuery;
+import android.arch.persistence.room.Transaction;
+import android.arch.persistence.room.Update;
+import android.database.Cursor;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
+import io.reactivex.Flowable;
+
+/**
+ * Queries of users and their phone numbers.<br>
+ * Every local insert and delete is recorded in the user_change log for {@link SyncEngine}, and
+ * deleted users stay as tombstones, hidden from every query, until their deletion is synced.
+ */
 @Dao
-public interface UserDao {
-    @Query("SELECT * FROM user")
-    List<User> getAll();
+public abstract class UserDao {
+    // Maximum number of bound variables in a single SQLite statement.
+    public static final int MAX_BIND_VARIABLES = 999;
+
+    @Query("SELECT * FROM user WHERE deleted = 0")
+    public abstract List<User> getAll();
+
+    /**
+     * Every id is bound as a variable, so at most {@link #MAX_BIND_VARIABLES} ids can be given,
+     * use {@link UserRepository#getByIds} for bigger batches.
+     */
+    @Query("SELECT * FROM user WHERE uid IN (:userIdes) AND deleted = 0")
+    public abstract List<User> getAllByIdes(int[] userIdes);
+
+    @Query("SELECT * FROM user WHERE uid = :id AND deleted = 0")
+    public abstract User getById(int id);
+
+    @Transaction
+    @Query("SELECT * FROM user WHERE uid = :id AND deleted = 0")
+    public abstract UserWithPhoneNumbers getWithPhoneNumbers(int id);
+
+    @Query("SELECT * FROM user WHERE first_name LIKE :first AND  last_name LIKE :last AND deleted = 0 LIMIT 1")
+    public abstract User getByName(String first, String last);
+
+    /**
+     * Find the owner of any of its numbers, through the phone_key index of phone_number.
+     */
+    @Query("SELECT user.* FROM user JOIN phone_number ON phone_number.user_id = user.uid "
+           + "WHERE phone_number.phone_key = :phoneKey LIMIT 1")
+    public abstract User getByPhoneKey(String phoneKey);
+
+    @Query("SELECT phone_key FROM phone_number WHERE phone_key IN (:phoneKeys)")
+    public abstract List<String> getExistingPhoneKeys(List<String> phoneKeys);
+
+    /**
+     * Count the users with exactly the given names and company, any of them may be null.
+     */
+    @Query("SELECT Count(*) FROM user WHERE first_name IS :firstName AND last_name IS :lastName "
+           + "AND company IS :company AND deleted = 0")
+    abstract int countByNameAndCompany(String firstName, String lastName, String company);
+
+    @Query("SELECT phone_key FROM phone_number WHERE user_id = :uid AND phone_key IS NOT NULL")
+    public abstract List<String> getPhoneKeys(int uid);
 
-    @Query("SELECT * FROM user WHERE uid IN (:userIdes)")
-    List<User> getAllByIdes(int[] userIdes);
+    /**
+     * Every (phone_key, user_id) pair, read as a cursor to load the caller id index without
+     * creating an object per number.
+     */
+    @Query("SELECT phone_key, user_id FROM phone_number WHERE phone_key IS NOT NULL")
+    public abstract Cursor getAllPhoneKeys();
 
-    @Query("SELECT * FROM user WHERE uid LIKE :id LIMIT 1")
-    User getById(int id);
+    /**
+     * Every user in uid order, read as a cursor by {@link ContactBackup} so a backup never holds
+     * the whole table in memory.
+     */
+    @Query("SELECT uid, remote_id, first_name, last_name, company, phone_number, image_uri FROM user "
+           + "WHERE deleted = 0 ORDER BY uid")
+    abstract Cursor getBackupUsers();
 
-    @Query("SELECT * FROM user WHERE first_name LIKE :first AND  last_name LIKE :last LIMIT 1")
-    User getByName(String first, String last);
+    /**
+     * Every phone number of the users of {@link #getBackupUsers()}, in the same user order.
+     */
+    @Query("SELECT phone_number.user_id, phone_number.number FROM phone_number "
+           + "JOIN user ON user.uid = phone_number.user_id WHERE user.deleted = 0 "
+           + "ORDER BY phone_number.user_id, phone_number.id")
+    abstract Cursor getBackupPhoneNumbers();
 
-    @Query("SELECT * FROM user WHERE phone_number LIKE :phoneNumber LIMIT 1")
-    User getByPhoneNumber(String phoneNumber);
+    @Query("SELECT remote_id FROM user WHERE remote_id IN (:remoteIds)")
+    abstract List<String> getExistingRemoteIds(List<String> remoteIds);
+
+    /**
+     * Run a query built by {@link ContactSearch}, which uses the user_fts table Room does not know.
+     */
+    @RawQuery
+    public abstract List<User> search(SupportSQLiteQuery query);
+
+    /**
+     * Insert the users, each with its primary phone number.
+     *
+     * @return the inserted phone numbers.
+     */
+    @Transaction
+    public List<PhoneNumber> insertAll(User... users) {
+        for (User user : users) {
+            assignRemoteId(user);
+        }
+        long[] ids = insertUsers(users);
+        List<PhoneNumber> phoneNumbers = new ArrayList<>(users.length);
+        List<UserChange> changes = new ArrayList<>(users.length);
+        for (int i = 0; i < users.length; i++) {
+            changes.add(new UserChange((int) ids[i]));
+            if (users[i].getPhoneNumber() != null) {
+                PhoneNumber phoneNumber = new PhoneNumber(users[i].getPhoneNumber());
+                phoneNumber.setUserId((int) ids[i]);
+                phoneNumbers.add(phoneNumber);
+            }
+        }
+        insertPhoneNumbers(phoneNumbers);
+        insertChanges(changes);
+        return phoneNumbers;
+    }
+
+    /**
+     * Insert the users with all their phone numbers.
+     *
+     * @return the inserted phone numbers.
+     */
+    @Transaction
+    public List<PhoneNumber> insertAllWithPhoneNumbers(List<UserWithPhoneNumbers> users) {
+        List<PhoneNumber> phoneNumbers = new ArrayList<>(users.size());
+        List<UserChange> changes = new ArrayList<>(users.size());
+        for (UserWithPhoneNumbers user : users) {
+            assignRemoteId(user.user);
+            int uid = (int) insertUser(user.user);
+            changes.add(new UserChange(uid));
+            for (PhoneNumber phoneNumber : user.phoneNumbers) {
+                phoneNumber.setUserId(uid);
+                phoneNumbers.add(phoneNumber);
+            }
+        }
+        insertPhoneNumbers(phoneNumbers);
+        insertChanges(changes);
+        return phoneNumbers;
+    }
+
+    /**
+     * Users created locally get their remote id right away, so they can be pushed without
+     * waiting for the directory to assign one.
+     */
+    private static void assignRemoteId(User user) {
+        if (user.getRemoteId() == null) {
+            user.setRemoteId(UUID.randomUUID().toString());
+        }
+    }
 
     @Insert
-    void insert(User users);
+    abstract long insertUser(User user);
 
     @Insert
-    void insertAll(User... users);
+    abstract long[] insertUsers(User... users);
+
+    @Insert
+    abstract void insertPhoneNumbers(List<PhoneNumber> phoneNumbers);
+
+    @Update
+    abstract void updateUser(User user);
+
+    @Query("DELETE FROM phone_number WHERE user_id = :uid")
+    abstract void deletePhoneNumbers(int uid);
+
+    /**
+     * Delete the user, keeping it as a tombstone until the deletion has been synced.
+     */
+    @Transaction
+    public void delete(User user) {
+        markDeleted(user.getUid());
+        deletePhoneNumbers(user.getUid());
+        insertChanges(Collections.singletonList(new UserChange(user.getUid())));
+    }
+
+    @Query("UPDATE user SET deleted = 1 WHERE uid = :uid")
+    abstract void markDeleted(int uid);
+
+    // Sync, see SyncEngine.
+
+    @Insert
+    abstract void insertChanges(List<UserChange> changes);
+
+    @Query("SELECT * FROM user_change WHERE version > :sinceVersion ORDER BY version LIMIT :limit")
+    abstract List<UserChange> getChangesSince(long sinceVersion, int limit);
+
+    @Query("DELETE FROM user_change WHERE version <= :version")
+    abstract void deleteChangesUpTo(long version);
+
+    @Query("DELETE FROM user_change WHERE user_id = :uid")
+    abstract void deleteChanges(int uid);
+
+    /**
+     * Get the users with the given ids, tombstones included.
+     */
+    @Transaction
+    @Query("SELECT * FROM user WHERE uid IN (:uids)")
+    abstract List<UserWithPhoneNumbers> getForSync(int[] uids);
+
+    @Query("SELECT * FROM user WHERE remote_id = :remoteId")
+    abstract User getByRemoteId(String remoteId);
+
+    /**
+     * Drop the tombstones whose deletion has been synced.
+     */
+    @Query("DELETE FROM user WHERE deleted = 1 AND uid NOT IN (SELECT user_id FROM user_change)")
+    abstract void purgeTombstones();
+
+    @Query("SELECT value FROM sync_state WHERE name = :name")
+    abstract Long getSyncState(String name);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    abstract void setSyncState(SyncState state);
+
+    /**
+     * Point the users of a picture, stored as a path or a file URI, to its new path.
+     */
+    @Query("UPDATE user SET image_uri = :newUri WHERE image_uri = :oldPath OR image_uri = :oldFileUri")
+    abstract void replaceImageUri(String oldPath, String oldFileUri, String newUri);
+
+    @Query("SELECT image_uri FROM user WHERE image_uri IS NOT NULL AND deleted = 0")
+    public abstract List<String> getImageUris();
+
+    @Query("SELECT Count(*) FROM user WHERE deleted = 0")
+    public abstract int getCount();
+
+    @Query("SELECT uid FROM user WHERE deleted = 0 ORDER BY uid")
+    public abstract Flowable<List<Integer>> observeIds();
+
+    /**
+     * Ids and initials of every user ordered by last name, ignoring case, read in order from the
+     * case-insensitive (last_name, first_name) index, whose entries end with the uid. See
+     * {@link AppDatabase#createSortIndexes}.
+     */
+    @Query("SELECT uid, substr(last_name, 1, 1) AS initial FROM user WHERE deleted = 0 "
+           + "ORDER BY last_name COLLATE NOCASE, first_name COLLATE NOCASE, uid")
+    public abstract Flowable<List<UserSortKey>> observeByLastName();
+
+    @Query("SELECT uid, substr(first_name, 1, 1) AS initial FROM user WHERE deleted = 0 "
+           + "ORDER BY first_name COLLATE NOCASE, last_name COLLATE NOCASE, uid")
+    public abstract Flowable<List<UserSortKey>> observeByFirstName();
 
-    @Delete
-    void delete(User user);
+    @Query("SELECT uid, substr(company, 1, 1) AS initial FROM user WHERE deleted = 0 "
+           + "ORDER BY company COLLATE NOCASE, last_name COLLATE NOCASE, first_name COLLATE NOCASE, uid")
+    public abstract Flowable<List<UserSortKey>> observeByCompany();
 
-    @Query("SELECT Count(*) FROM user")
-    int getCount();
-}
\ No newline at end of file
+}
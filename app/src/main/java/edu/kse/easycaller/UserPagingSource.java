@@ -0,0 +1,262 @@
+package edu.kse.easycaller;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps pager positions to user ids and loads users in pages of {@link #PAGE_SIZE}.<br>
+ * The full list of ids is kept as {@link SortedIds}, so any position resolves to its uid in
+ * constant time and any section to its first position without loading the pages before it.
+ * Users themselves are loaded lazily by fetching the ids of the missing pages in a single bulk
+ * query, and only a few pages are kept in memory.<br>
+ * All methods must be called from the main thread.
+ */
+public class UserPagingSource {
+
+    // Number of users per loaded page.
+    static final int PAGE_SIZE = 20;
+
+    // Number of loaded pages kept in memory.
+    private static final int MAX_CACHED_PAGES = 6;
+
+    // Delay before loading again pages the database queue had no room for.
+    private static final long REJECTED_RETRY_DELAY_MILLIS = 200;
+
+    private final UserRepository userRepository;
+
+    // Loaded pages by page index, each holding its users by uid.
+    private final LruCache<Integer, SparseArray<User>> pages = new LruCache<>(MAX_CACHED_PAGES);
+    private final SparseBooleanArray loadingPages = new SparseBooleanArray();
+    private final SparseArray<List<UserRepository.Callback<User>>> waiting = new SparseArray<>();
+    private final Handler retryHandler = new Handler(Looper.getMainLooper());
+
+    // User ids in pager order.
+    private SortedIds uids = SortedIds.EMPTY;
+
+    // Incremented whenever the ids change, so results of older loads are dropped.
+    private int generation;
+
+    // False until the first ids are set, users asked for meanwhile wait for them.
+    private boolean hasUids;
+
+    UserPagingSource(@NonNull UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    public int size() {
+        return uids.size();
+    }
+
+    public int getUid(int position) {
+        return uids.getUid(position);
+    }
+
+    /**
+     * @return the position of the given user, or -1 if it is not in the table anymore.
+     */
+    public int indexOf(int uid) {
+        return uids.indexOf(uid);
+    }
+
+    /**
+     * @return the section labels of the current order, empty if it has no sections.
+     */
+    public String[] getSections() {
+        return uids.getSections();
+    }
+
+    public int getPositionForSection(int section) {
+        return uids.getPositionForSection(section);
+    }
+
+    /**
+     * @return the section of the given position, or -1 if the current order has no sections.
+     */
+    public int getSectionForPosition(int position) {
+        return uids.getSectionForPosition(position);
+    }
+
+    /**
+     * Replace the ids with a new snapshot of the user table and drop every loaded page.
+     */
+    void setUids(@NonNull SortedIds currentUids) {
+        uids = currentUids;
+        hasUids = true;
+        generation++;
+        pages.evictAll();
+        loadingPages.clear();
+
+        // Reload the pages that callers are still waiting for.
+        for (int i = waiting.size() - 1; i >= 0; i--) {
+            int position = indexOf(waiting.keyAt(i));
+            if (position < 0) {
+                List<UserRepository.Callback<User>> callbacks = waiting.valueAt(i);
+                waiting.removeAt(i);
+                deliver(callbacks, null);
+            } else {
+                int page = position / PAGE_SIZE;
+                loadPages(page, page);
+            }
+        }
+    }
+
+    /**
+     * Get the user with the given id, immediately if its page is loaded, otherwise once the page
+     * has been fetched. The callback receives null if the user does not exist.<br>
+     * Pages restored with the activity ask for their users before the first ids are known, they
+     * are answered once the ids are set.
+     */
+    public void getUser(int uid, @NonNull UserRepository.Callback<User> callback) {
+        if (!hasUids) {
+            addWaiting(uid, callback);
+            return;
+        }
+
+        int position = indexOf(uid);
+        if (position < 0) {
+            callback.onResult(null);
+            return;
+        }
+
+        int page = position / PAGE_SIZE;
+        SparseArray<User> users = pages.get(page);
+        if (users != null) {
+            callback.onResult(users.get(uid));
+            return;
+        }
+
+        addWaiting(uid, callback);
+        loadPages(page, page);
+    }
+
+    private void addWaiting(int uid, UserRepository.Callback<User> callback) {
+        List<UserRepository.Callback<User>> callbacks = waiting.get(uid);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>(1);
+            waiting.put(uid, callbacks);
+        }
+        callbacks.add(callback);
+    }
+
+    /**
+     * Make sure the page of the given position and the nearest neighbouring page are loaded,
+     * fetching whatever is missing in one query.
+     */
+    public void prefetch(int position) {
+        int page = position / PAGE_SIZE;
+        if (position % PAGE_SIZE < PAGE_SIZE / 2) {
+            loadPages(page - 1, page);
+        } else {
+            loadPages(page, page + 1);
+        }
+    }
+
+    /**
+     * Load the pages between the two given ones, inclusive, that are neither loaded nor loading.
+     */
+    private void loadPages(int firstPage, int lastPage) {
+        if (uids.size() == 0) {
+            return;
+        }
+        final int lastLoadablePage = (uids.size() - 1) / PAGE_SIZE;
+        final List<Integer> missingPages = new ArrayList<>(lastPage - firstPage + 1);
+        for (int page = Math.max(0, firstPage); page <= Math.min(lastPage, lastLoadablePage); page++) {
+            if (!loadingPages.get(page) && pages.get(page) == null) {
+                missingPages.add(page);
+            }
+        }
+        if (missingPages.isEmpty()) {
+            return;
+        }
+
+        int[] ids = new int[missingPages.size() * PAGE_SIZE];
+        int count = 0;
+        for (int page : missingPages) {
+            loadingPages.put(page, true);
+            int end = Math.min(uids.size(), (page + 1) * PAGE_SIZE);
+            for (int i = page * PAGE_SIZE; i < end; i++) {
+                ids[count++] = uids.getUid(i);
+            }
+        }
+
+        final int requestGeneration = generation;
+        userRepository.getByIds(Arrays.copyOf(ids, count), new UserRepository.Callback<SparseArray<User>>() {
+            @Override
+            public void onResult(SparseArray<User> result) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                if (result == null) {
+                    onPagesRejected(missingPages);
+                    return;
+                }
+                for (int page : missingPages) {
+                    onPageLoaded(page, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * The database queue was full, let the pages be loaded again and retry the ones callers are
+     * waiting for once the queue had time to drain.
+     */
+    private void onPagesRejected(List<Integer> rejectedPages) {
+        for (int page : rejectedPages) {
+            loadingPages.delete(page);
+        }
+        final int requestGeneration = generation;
+        retryHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                for (int i = 0; i < waiting.size(); i++) {
+                    int position = indexOf(waiting.keyAt(i));
+                    if (position >= 0) {
+                        loadPages(position / PAGE_SIZE, position / PAGE_SIZE);
+                    }
+                }
+            }
+        }, REJECTED_RETRY_DELAY_MILLIS);
+    }
+
+    private void onPageLoaded(int page, SparseArray<User> result) {
+        loadingPages.delete(page);
+
+        int start = page * PAGE_SIZE;
+        int end = Math.min(uids.size(), start + PAGE_SIZE);
+        SparseArray<User> users = new SparseArray<>(end - start);
+        for (int i = start; i < end; i++) {
+            User user = result.get(uids.getUid(i));
+            if (user != null) {
+                users.put(uids.getUid(i), user);
+            }
+        }
+        pages.put(page, users);
+
+        for (int i = start; i < end; i++) {
+            int uid = uids.getUid(i);
+            List<UserRepository.Callback<User>> callbacks = waiting.get(uid);
+            if (callbacks != null) {
+                waiting.remove(uid);
+                deliver(callbacks, users.get(uid));
+            }
+        }
+    }
+
+    private static void deliver(List<UserRepository.Callback<User>> callbacks, User user) {
+        for (UserRepository.Callback<User> callback : callbacks) {
+            callback.onResult(user);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Flowable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Entry point of the UI to the {@link UserDao}, background components like {@link SyncEngine}
+ * or {@link CallerIdReceiver} use it directly.<br>
+ * Every query runs on a small bounded executor and its result is delivered back on the main
+ * thread, so the database is never touched from the UI thread. Writes run in order on their own
+ * thread, whose queue is never full, so none is ever dropped.
+ */
+public class UserRepository {
+
+    private static final String TAG = "UserRepository";
+
+    // Number of worker threads used to run database queries.
+    private static final int THREAD_COUNT = 2;
+
+    // Maximum number of queries waiting for a worker thread.
+    private static final int QUEUE_CAPACITY = 128;
+
+    private static final Metrics.Histogram GET_BY_IDS_LATENCY = Metrics.histogram("db.getByIds");
+    private static final Metrics.Histogram GET_COUNT_LATENCY = Metrics.histogram("db.getCount");
+    private static final Metrics.Histogram GET_BY_ID_LATENCY = Metrics.histogram("db.getById");
+    private static final Metrics.Histogram GET_BY_PHONE_KEY_LATENCY = Metrics.histogram("db.getByPhoneKey");
+    private static final Metrics.Histogram SEARCH_LATENCY = Metrics.histogram("db.search");
+    private static final Metrics.Histogram GET_WITH_PHONE_NUMBERS_LATENCY = Metrics.histogram("db.getWithPhoneNumbers");
+    private static final Metrics.Histogram INSERT_LATENCY = Metrics.histogram("db.insert");
+    private static final Metrics.Histogram DELETE_LATENCY = Metrics.histogram("db.delete");
+    private static final Metrics.Counter REJECTED_QUERIES = Metrics.counter("db.rejected");
+
+    /**
+     * Receives the result of an asynchronous query on the main thread, or null if the query could
+     * not be queued because too many are waiting.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private final UserDao userDao;
+    private final CallerIdIndex callerIdIndex;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService writeExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    UserRepository(@NonNull AppDatabase database, @NonNull CallerIdIndex callerIdIndex) {
+        this.userDao = database.userDao();
+        this.callerIdIndex = callerIdIndex;
+        this.executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                                               30, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                                               new DatabaseThreadFactory("user-db-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.writeExecutor = Executors.newSingleThreadExecutor(new DatabaseThreadFactory("user-db-write-"));
+    }
+
+    /**
+     * Emit the ids of all users in the given order, with their sections, now and every time the
+     * user table changes. The order comes from the query, sections are built off the main thread.
+     */
+    public Flowable<SortedIds> observeIds(@NonNull SortOrder sortOrder) {
+        if (sortOrder == SortOrder.DATE_ADDED) {
+            return userDao.observeIds()
+                          .subscribeOn(Schedulers.from(executor))
+                          .map(new Function<List<Integer>, SortedIds>() {
+                              @Override
+                              public SortedIds apply(List<Integer> ids) {
+                                  return SortedIds.fromIds(ids);
+                              }
+                          })
+                          .observeOn(AndroidSchedulers.mainThread());
+        }
+
+        Flowable<List<UserSortKey>> keys;
+        switch (sortOrder) {
+            case FIRST_NAME:
+                keys = userDao.observeByFirstName();
+                break;
+            case COMPANY:
+                keys = userDao.observeByCompany();
+                break;
+            default:
+                keys = userDao.observeByLastName();
+                break;
+        }
+        return keys.subscribeOn(Schedulers.from(executor))
+                   .map(new Function<List<UserSortKey>, SortedIds>() {
+                       @Override
+                       public SortedIds apply(List<UserSortKey> keys) {
+                           return SortedIds.fromSortKeys(keys);
+                       }
+                   })
+                   .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Load the users with the given ids, keyed by uid, in a single task.<br>
+     * Ids are queried in chunks that fit SQLite's variable limit, a pager window fits in one.
+     * Ids of missing users are absent from the result.
+     */
+    public void getByIds(@NonNull final int[] ids, @NonNull final Callback<SparseArray<User>> callback) {
+        query(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, getByIdsSync(ids));
+            }
+        }, callback);
+    }
+
+    private SparseArray<User> getByIdsSync(int[] ids) {
+        long startNanos = System.nanoTime();
+        SparseArray<User> users = new SparseArray<>(ids.length);
+        for (int start = 0; start < ids.length; start += UserDao.MAX_BIND_VARIABLES) {
+            int end = Math.min(ids.length, start + UserDao.MAX_BIND_VARIABLES);
+            for (User user : userDao.getAllByIdes(Arrays.copyOfRange(ids, start, end))) {
+                users.put(user.getUid(), user);
+            }
+        }
+        GET_BY_IDS_LATENCY.recordSince(startNanos);
+        return users;
+    }
+
+    public void getCount(@NonNull final Callback<Integer> callback) {
+        query(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                int count = userDao.getCount();
+                GET_COUNT_LATENCY.recordSince(start);
+                deliver(callback, count);
+            }
+        }, callback);
+    }
+
+    public void getById(final int id, @NonNull final Callback<User> callback) {
+        query(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                User user = userDao.getById(id);
+                GET_BY_ID_LATENCY.recordSince(start);
+                deliver(callback, user);
+            }
+        }, callback);
+    }
+
+    /**
+     * Find the user owning the given phone number, whatever way the number is formatted.<br>
+     * The lookup is a single match on the indexed phone_key column.
+     */
+    public void getByPhoneNumber(@NonNull String phoneNumber, @NonNull final Callback<User> callback) {
+        final String phoneKey = PhoneNumbers.normalize(phoneNumber);
+        if (phoneKey == null) {
+            deliver(callback, null);
+            return;
+        }
+        query(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                User user = userDao.getByPhoneKey(phoneKey);
+                GET_BY_PHONE_KEY_LATENCY.recordSince(start);
+                deliver(callback, user);
+            }
+        }, callback);
+    }
+
+    /**
+     * Search users whose first name, last name or company contain words starting with the
+     * typed words.
+     *
+     * @param page the page of {@link ContactSearch#PAGE_SIZE} results to load, starting at 0.
+     */
+    public void search(@NonNull String text, int page, @NonNull final Callback<List<User>> callback) {
+        final SupportSQLiteQuery query = ContactSearch.buildQuery(text, page);
+        if (query == null) {
+            deliver(callback, Collections.<User>emptyList());
+            return;
+        }
+        query(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                List<User> users = userDao.search(query);
+                SEARCH_LATENCY.recordSince(start);
+                deliver(callback, users);
+            }
+        }, callback);
+    }
+
+    /**
+     * Load the user with the given id and all its phone numbers.
+     */
+    public void getWithPhoneNumbers(final int id, @NonNull final Callback<UserWithPhoneNumbers> callback) {
+        query(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                UserWithPhoneNumbers user = userDao.getWithPhoneNumbers(id);
+                GET_WITH_PHONE_NUMBERS_LATENCY.recordSince(start);
+                deliver(callback, user);
+            }
+        }, callback);
+    }
+
+    /**
+     * Insert the user with all the given phone numbers, the first one being its primary number.
+     */
+    public void insert(@NonNull User user, @NonNull List<String> phoneNumbers) {
+        final List<UserWithPhoneNumbers> users = Collections.singletonList(UserWithPhoneNumbers.of(user, phoneNumbers));
+        write(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                callerIdIndex.addAll(userDao.insertAllWithPhoneNumbers(users));
+                INSERT_LATENCY.recordSince(start);
+            }
+        });
+    }
+
+    public void insertAll(@NonNull final User... users) {
+        insertAll(users, null);
+    }
+
+    public void insertAll(@NonNull final User[] users, @Nullable final Callback<Void> callback) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                callerIdIndex.addAll(userDao.insertAll(users));
+                INSERT_LATENCY.recordSince(start);
+                if (callback != null) {
+                    deliver(callback, null);
+                }
+            }
+        });
+    }
+
+    public void delete(@NonNull final User user) {
+        write(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                List<String> phoneKeys = userDao.getPhoneKeys(user.getUid());
+                userDao.delete(user);
+                callerIdIndex.removeAll(phoneKeys, user.getUid());
+                DELETE_LATENCY.recordSince(start);
+            }
+        });
+    }
+
+    /**
+     * Run a read, or answer null right away if the queue is full so the caller can clear its
+     * state and ask again later.
+     */
+    private <T> void query(Runnable task, Callback<T> callback) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            REJECTED_QUERIES.increment();
+            Log.e(TAG, "Database queue is full, query dropped", e);
+            deliver(callback, null);
+        }
+    }
+
+    private void write(Runnable task) {
+        writeExecutor.execute(task);
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private static class DatabaseThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DatabaseThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package edu.kse.easycaller;
+
+/**
+ * Id of a user and the first character of the column it is sorted by, as read by the ordered
+ * queries of {@link UserDao}.
+ */
+public class UserSortKey {
+    public int uid;
+
+    // Null if the sorted column is empty.
+    public String initial;
+}
@@ -0,0 +1,34 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Embedded;
+import android.arch.persistence.room.Relation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A user with every phone number it owns.<br>
+ * Room loads the numbers of all users of a query with one extra query, not one per user.
+ */
+public class UserWithPhoneNumbers {
+    @Embedded
+    public User user;
+
+    @Relation(parentColumn = "uid", entityColumn = "user_id")
+    public List<PhoneNumber> phoneNumbers = new ArrayList<>();
+
+    /**
+     * Create a user owning the given numbers, the first one becomes its primary phone number.
+     */
+    public static UserWithPhoneNumbers of(User user, List<String> numbers) {
+        UserWithPhoneNumbers userWithPhoneNumbers = new UserWithPhoneNumbers();
+        userWithPhoneNumbers.user = user;
+        for (String number : numbers) {
+            userWithPhoneNumbers.phoneNumbers.add(new PhoneNumber(number));
+        }
+        if (user.getPhoneNumber() == null && !numbers.isEmpty()) {
+            user.setPhoneNumber(numbers.get(0));
+        }
+        return userWithPhoneNumbers;
+    }
+}
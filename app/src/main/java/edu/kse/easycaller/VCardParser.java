@@ -0,0 +1,209 @@
+package edu.kse.easycaller;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming reader of vCard 2.1, 3.0 and 4.0 files.<br>
+ * Cards are read one at a time, so files of any size are imported with constant memory. Only the
+ * properties the app stores are kept: N (or FN), ORG and TEL.
+ */
+public class VCardParser implements ContactSource {
+
+    private final BufferedReader reader;
+
+    // Physical line read ahead while unfolding the previous logical line.
+    private String nextLine;
+
+    public VCardParser(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public UserWithPhoneNumbers next() throws IOException {
+        User user = null;
+        List<String> numbers = new ArrayList<>();
+        String formattedName = null;
+
+        String line;
+        while ((line = readLogicalLine()) != null) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String[] nameAndParams = line.substring(0, colon).split(";");
+            String name = nameAndParams[0];
+            // Drop the group of grouped properties like "item1.TEL".
+            name = name.substring(name.lastIndexOf('.') + 1).toUpperCase(Locale.ROOT);
+            String value = line.substring(colon + 1);
+
+            if (name.equals("BEGIN") && value.equalsIgnoreCase("VCARD")) {
+                user = new User();
+                numbers.clear();
+                formattedName = null;
+                continue;
+            }
+            if (user == null) {
+                continue;
+            }
+
+            if (isQuotedPrintable(nameAndParams)) {
+                value = decodeQuotedPrintable(value, getCharset(nameAndParams));
+            }
+
+            switch (name) {
+                case "END":
+                    if (value.equalsIgnoreCase("VCARD")) {
+                        if (user.getFirstName() == null && user.getLastName() == null) {
+                            user.setFirstName(formattedName);
+                        }
+                        return UserWithPhoneNumbers.of(user, numbers);
+                    }
+                    break;
+                case "N": {
+                    String[] parts = splitComponents(value);
+                    user.setLastName(emptyToNull(parts[0]));
+                    user.setFirstName(parts.length > 1 ? emptyToNull(parts[1]) : null);
+                    break;
+                }
+                case "FN":
+                    formattedName = emptyToNull(unescape(value));
+                    break;
+                case "ORG":
+                    user.setCompany(emptyToNull(splitComponents(value)[0]));
+                    break;
+                case "TEL": {
+                    // vCard 4.0 writes numbers as "tel:" URIs.
+                    String number = value.regionMatches(true, 0, "tel:", 0, 4) ? value.substring(4) : value;
+                    if (!number.trim().isEmpty()) {
+                        numbers.add(number.trim());
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Read the next line, joining folded continuation lines and quoted-printable soft breaks.
+     */
+    private String readLogicalLine() throws IOException {
+        String line = nextLine != null ? nextLine : reader.readLine();
+        nextLine = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder logical = new StringBuilder(line);
+        while (true) {
+            String following = reader.readLine();
+            if (following == null) {
+                break;
+            }
+            if (!following.isEmpty() && (following.charAt(0) == ' ' || following.charAt(0) == '\t')) {
+                logical.append(following, 1, following.length());
+            } else if (logical.length() > 0 && logical.charAt(logical.length() - 1) == '='
+                       && logical.indexOf("QUOTED-PRINTABLE") >= 0) {
+                logical.setLength(logical.length() - 1);
+                logical.append(following);
+            } else {
+                nextLine = following;
+                break;
+            }
+        }
+        return logical.toString();
+    }
+
+    private static boolean isQuotedPrintable(String[] nameAndParams) {
+        for (int i = 1; i < nameAndParams.length; i++) {
+            if (nameAndParams[i].equalsIgnoreCase("ENCODING=QUOTED-PRINTABLE")
+                    || nameAndParams[i].equalsIgnoreCase("QUOTED-PRINTABLE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getCharset(String[] nameAndParams) {
+        for (int i = 1; i < nameAndParams.length; i++) {
+            if (nameAndParams[i].regionMatches(true, 0, "CHARSET=", 0, 8)) {
+                return nameAndParams[i].substring(8);
+            }
+        }
+        return "UTF-8";
+    }
+
+    static String decodeQuotedPrintable(String value, String charset) throws UnsupportedEncodingException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '=' && i + 2 < value.length()) {
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high >= 0 && low >= 0) {
+                    bytes.write((high << 4) | low);
+                    i += 2;
+                    continue;
+                }
+            }
+            bytes.write(c);
+        }
+        return bytes.toString(charset);
+    }
+
+    /**
+     * Split a structured value on unescaped ";" and unescape each component.
+     */
+    static String[] splitComponents(String value) {
+        List<String> components = new ArrayList<>();
+        StringBuilder component = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                component.append(c).append(value.charAt(++i));
+            } else if (c == ';') {
+                components.add(unescape(component.toString()));
+                component.setLength(0);
+            } else {
+                component.append(c);
+            }
+        }
+        components.add(unescape(component.toString()));
+        return components.toArray(new String[components.size()]);
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value.trim();
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                unescaped.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString().trim();
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
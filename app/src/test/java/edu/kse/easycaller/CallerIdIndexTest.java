@@ -0,0 +1,78 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallerIdIndexTest {
+
+    private static final String SHARED_NUMBER = "+218911234567";
+
+    private AppDatabase database;
+    private UserDao userDao;
+    private CallerIdIndex callerIdIndex;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+        callerIdIndex = new CallerIdIndex(database);
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    private int insert(String firstName, String phoneNumber) {
+        User user = new User();
+        user.setFirstName(firstName);
+        user.setPhoneNumber(phoneNumber);
+        return userDao.insertAll(user).get(0).getUserId();
+    }
+
+    private void delete(int uid) {
+        List<String> phoneKeys = userDao.getPhoneKeys(uid);
+        userDao.delete(userDao.getById(uid));
+        callerIdIndex.removeAll(phoneKeys, uid);
+    }
+
+    @Test
+    public void removeAll_keepsSharedNumberOfOtherUser() {
+        int first = insert("First", SHARED_NUMBER);
+        int second = insert("Second", SHARED_NUMBER);
+
+        int owner = callerIdIndex.lookup(SHARED_NUMBER, 5000);
+        assertTrue(owner == first || owner == second);
+
+        delete(owner);
+        assertEquals(owner == first ? second : first, callerIdIndex.lookup(SHARED_NUMBER, 5000));
+
+        delete(owner == first ? second : first);
+        assertEquals(PhoneKeyIndex.NO_USER, callerIdIndex.lookup(SHARED_NUMBER, 5000));
+    }
+
+    @Test
+    public void removeAll_ignoresNumbersOwnedByOtherUser() {
+        int first = insert("First", SHARED_NUMBER);
+        int second = insert("Second", SHARED_NUMBER);
+        int owner = callerIdIndex.lookup(SHARED_NUMBER, 5000);
+        int other = owner == first ? second : first;
+
+        delete(other);
+
+        assertEquals(owner, callerIdIndex.lookup(SHARED_NUMBER, 5000));
+    }
+}
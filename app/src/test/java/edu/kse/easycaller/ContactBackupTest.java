@@ -0,0 +1,180 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactBackupTest {
+
+    private static final int USER_COUNT = 2000;
+
+    private AppDatabase source;
+    private AppDatabase target;
+    private File sourcePictures;
+    private File targetPictures;
+    private File archive;
+
+    @Before
+    public void createDatabases() {
+        source = createDatabase();
+        target = createDatabase();
+        File filesDir = RuntimeEnvironment.application.getFilesDir();
+        sourcePictures = new File(filesDir, "source");
+        targetPictures = new File(filesDir, "target");
+        sourcePictures.mkdirs();
+        archive = new File(filesDir, "contacts.backup");
+    }
+
+    @After
+    public void closeDatabases() {
+        source.close();
+        target.close();
+    }
+
+    @Test
+    public void restore_recreatesUsersNumbersAndPictures() throws IOException {
+        fillSource();
+        ContactBackup.Stats backedUp = backup();
+        assertEquals(USER_COUNT, backedUp.users);
+        assertEquals(10, backedUp.pictures);
+
+        ContactBackup.Stats restored = restore();
+        assertEquals(USER_COUNT, restored.users);
+        assertEquals(10, restored.pictures);
+        assertEquals(USER_COUNT, target.userDao().getCount());
+
+        User user = target.userDao().getByPhoneKey(PhoneNumbers.normalize("0920000042"));
+        assertNotNull(user);
+        assertEquals("First42", user.getFirstName());
+        assertEquals("Company2", user.getCompany());
+        assertEquals(source.userDao().getByPhoneKey(PhoneNumbers.normalize("0920000042")).getRemoteId(),
+                     user.getRemoteId());
+        assertEquals(2, target.userDao().getPhoneKeys(user.getUid()).size());
+
+        File picture = new File(user.getImageUri());
+        assertEquals(targetPictures, picture.getParentFile());
+        assertArrayEquals(pictureBytes(2), readFile(picture));
+    }
+
+    @Test
+    public void restore_skipsUsersAndPicturesAlreadyPresent() throws IOException {
+        fillSource();
+        backup();
+        restore();
+
+        ContactBackup.Stats again = restore();
+        assertEquals(0, again.users);
+        assertEquals(USER_COUNT, again.skippedUsers);
+        assertEquals(0, again.pictures);
+        assertEquals(10, again.skippedPictures);
+        assertEquals(USER_COUNT, target.userDao().getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void restore_rejectsCorruptedArchive() throws IOException {
+        fillSource();
+        backup();
+
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            long position = file.length() / 2;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+        restore();
+    }
+
+    private void fillSource() throws IOException {
+        List<UserWithPhoneNumbers> users = new ArrayList<>(USER_COUNT);
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setFirstName("First" + i);
+            user.setLastName("Last" + i);
+            user.setCompany("Company" + (i % 10));
+            // Every tenth of the users shares one of ten pictures.
+            user.setImageUri(writePicture(i % 10).getAbsolutePath());
+            users.add(UserWithPhoneNumbers.of(user, Arrays.asList(
+                    String.format("092%07d", i), String.format("091%07d", i))));
+        }
+        source.userDao().insertAllWithPhoneNumbers(users);
+    }
+
+    private File writePicture(int index) throws IOException {
+        File picture = new File(sourcePictures, "picture" + index + ".jpg");
+        if (!picture.exists()) {
+            FileOutputStream stream = new FileOutputStream(picture);
+            try {
+                stream.write(pictureBytes(index));
+            } finally {
+                stream.close();
+            }
+        }
+        return picture;
+    }
+
+    /**
+     * Random bytes larger than a chunk, so pictures span several chunks.
+     */
+    private static byte[] pictureBytes(int index) {
+        byte[] bytes = new byte[BackupArchive.CHUNK_SIZE * 2 + 100];
+        new Random(index).nextBytes(bytes);
+        return bytes;
+    }
+
+    private ContactBackup.Stats backup() throws IOException {
+        FileChannel channel = new FileOutputStream(archive).getChannel();
+        try {
+            return new ContactBackup(source, sourcePictures, new CallerIdIndex(source)).backup(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ContactBackup.Stats restore() throws IOException {
+        FileChannel channel = new RandomAccessFile(archive, "r").getChannel();
+        try {
+            return new ContactBackup(target, targetPictures, new CallerIdIndex(target)).restore(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static AppDatabase createDatabase() {
+        return Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                   .allowMainThreadQueries()
+                   .build();
+    }
+}
@@ -0,0 +1,149 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactSearchTest {
+
+    private AppDatabase database;
+    private UserDao userDao;
+    private int phoneCount;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .addCallback(AppDatabase.CALLBACK)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    private User insert(String firstName, String lastName, String company) {
+        User user = new User();
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setCompany(company);
+        user.setPhoneNumber("+21891" + (1000000 + phoneCount++));
+        user.setUid(userDao.insertAll(user).get(0).getUserId());
+        return user;
+    }
+
+    private List<Integer> search(String text) {
+        List<Integer> uids = new ArrayList<>();
+        for (User user : userDao.search(ContactSearch.buildQuery(text, 0))) {
+            uids.add(user.getUid());
+        }
+        return uids;
+    }
+
+    /**
+     * Ids of the users indexed for the given FTS match, read from the index only.
+     */
+    private List<Integer> indexed(String match) {
+        List<Integer> uids = new ArrayList<>();
+        Cursor cursor = database.query("SELECT docid FROM user_fts WHERE user_fts MATCH ? ORDER BY docid",
+                                       new Object[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                uids.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uids;
+    }
+
+    @Test
+    public void splitWords_dropsOperators() {
+        assertArrayEquals(new String[]{"ann", "or", "smith"}, ContactSearch.splitWords("  Ann OR \"Smith*\" "));
+        assertEquals(0, ContactSearch.splitWords(" -*\" ").length);
+        assertNull(ContactSearch.buildQuery(" -* ", 0));
+    }
+
+    @Test
+    public void search_matchesWordPrefixes() {
+        User ann = insert("Annabel", "Smithson", null);
+        insert("Bob", "Jones", "Annex Ltd");
+        insert("Joanne", "Smith", null);
+
+        assertEquals(Arrays.asList(ann.getUid()), search("ann smi"));
+        // A word inside a name is not a prefix match.
+        assertTrue(search("nne").isEmpty());
+    }
+
+    @Test
+    public void search_ranksNamesBeforeOtherMatchesBeforeCompanies() {
+        User company = insert("Ann", "Zed", "Smith Co");
+        User other = insert("Bob", "Ann-Smith", null);
+        User lastName = insert("Ann", "Smithson", null);
+        User firstName = insert("Smith", "Ann", null);
+
+        assertEquals(Arrays.asList(firstName.getUid(), lastName.getUid(), other.getUid(), company.getUid()),
+                     search("smith ann"));
+    }
+
+    @Test
+    public void triggers_keepIndexInSync() {
+        User user = insert("Ann", "Smith", null);
+        assertEquals(Arrays.asList(user.getUid()), indexed("ann*"));
+
+        user.setFirstName("Beth");
+        userDao.updateUser(user);
+        assertTrue(indexed("ann*").isEmpty());
+        assertEquals(Arrays.asList(user.getUid()), indexed("beth*"));
+
+        database.getOpenHelper().getWritableDatabase().execSQL("DELETE FROM user WHERE uid = " + user.getUid());
+        assertTrue(indexed("beth*").isEmpty());
+    }
+
+    @Test
+    public void search_excludesTombstones() {
+        User deleted = insert("Ann", "Smith", null);
+        User kept = insert("Ann", "Jones", null);
+
+        userDao.delete(deleted);
+
+        assertEquals(Arrays.asList(kept.getUid()), search("ann"));
+    }
+
+    @Test
+    public void migration_indexesExistingUsers() {
+        database.close();
+        // Without the callback there is no user_fts, as in a version 2 database.
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+        User first = insert("Ann", "Smith", null);
+        User second = insert("Anna", "Jones", "Smith Co");
+
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        AppDatabase.MIGRATION_2_3.migrate(db);
+
+        assertEquals(Arrays.asList(first.getUid(), second.getUid()), indexed("ann*"));
+        assertEquals(Arrays.asList(first.getUid(), second.getUid()), indexed("smith*"));
+        // Users added after the migration are indexed by the triggers.
+        User third = insert("Annie", "Brown", null);
+        assertEquals(Arrays.asList(first.getUid(), second.getUid(), third.getUid()), indexed("ann*"));
+    }
+}
@@ -0,0 +1,211 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks the {@link UserDao} queries on an in-memory database of 1k, 10k and 100k users, on
+ * the JVM through Robolectric.<br>
+ * Skipped unless run with {@code ./gradlew testDebugUnitTest -Pbenchmark}. Results are written
+ * as JSON to {@code build/benchmarks/data-layer.json}, one entry per query and table size, so two
+ * builds can be compared entry by entry.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataLayerBenchmarkTest {
+
+    private static final int[] ROW_COUNTS = {1000, 10000, 100000};
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    // Users inserted by one measured insertAll call, and ids fetched by one getAllByIdes call.
+    private static final int INSERT_BATCH_SIZE = 100;
+    private static final int FETCH_BATCH_SIZE = 100;
+
+    private AppDatabase database;
+    private UserDao userDao;
+    private final Random random = new Random(42);
+    private final List<String> results = new ArrayList<>();
+
+    // Users inserted by the insertAll benchmark, numbered after the seeded ones.
+    private int extraUsers;
+
+    /**
+     * A query run repeatedly by the benchmark.
+     */
+    private interface Operation {
+        void run(int rowCount);
+    }
+
+    @Before
+    public void createDatabase() {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        // With the callback, so inserts pay for the FTS triggers and queries see the sort indexes.
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .addCallback(AppDatabase.CALLBACK)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+    }
+
+    @After
+    public void closeDatabase() {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    @Test
+    public void dataLayer() throws IOException {
+        int rowCount = 0;
+        for (int target : ROW_COUNTS) {
+            seed(rowCount, target);
+            rowCount = target;
+            runAll(rowCount);
+        }
+        writeResults();
+    }
+
+    private void runAll(final int rowCount) {
+        assertEquals(rowCount, userDao.getCount());
+        measure("getById", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                assertNotNull(userDao.getById(1 + random.nextInt(rows)));
+            }
+        });
+        measure("getByPhoneNumber", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                // Dialed in the local format of a number stored in international format.
+                String dialed = "0" + formatNumber(random.nextInt(rows)).substring("+218 ".length());
+                assertNotNull(userDao.getByPhoneKey(PhoneNumbers.normalize(dialed)));
+            }
+        });
+        measure("getByName", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                int index = random.nextInt(rows);
+                assertNotNull(userDao.getByName("First" + index, "Last" + index));
+            }
+        });
+        measure("getCount", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                assertTrue(userDao.getCount() >= rows);
+            }
+        });
+        measure("getAllByIdes", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                int[] ids = new int[FETCH_BATCH_SIZE];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = 1 + random.nextInt(rows);
+                }
+                assertFalse(userDao.getAllByIdes(ids).isEmpty());
+            }
+        });
+        measure("insertAll", rowCount, new Operation() {
+            @Override
+            public void run(int rows) {
+                User[] users = new User[INSERT_BATCH_SIZE];
+                for (int i = 0; i < users.length; i++) {
+                    users[i] = newUser(ROW_COUNTS[ROW_COUNTS.length - 1] + extraUsers++);
+                }
+                // Rolled back, so the table keeps the measured size for the next stages.
+                database.beginTransaction();
+                try {
+                    userDao.insertAll(users);
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+    }
+
+    private void measure(String name, int rowCount, Operation operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run(rowCount);
+        }
+
+        long[] nanos = new long[MEASURED_ITERATIONS];
+        long total = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            operation.run(rowCount);
+            nanos[i] = System.nanoTime() - start;
+            total += nanos[i];
+        }
+
+        Arrays.sort(nanos);
+        String result = String.format(Locale.US,
+                "{\"benchmark\": \"%s\", \"rows\": %d, \"iterations\": %d, \"meanNanos\": %d, "
+                + "\"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d}",
+                name, rowCount, MEASURED_ITERATIONS, total / MEASURED_ITERATIONS,
+                nanos[MEASURED_ITERATIONS / 2], nanos[MEASURED_ITERATIONS * 9 / 10],
+                nanos[MEASURED_ITERATIONS * 99 / 100]);
+        System.out.println(result);
+        results.add(result);
+    }
+
+    private void seed(int from, int to) {
+        for (int i = from; i < to; i += SEED_BATCH_SIZE) {
+            User[] batch = new User[Math.min(SEED_BATCH_SIZE, to - i)];
+            for (int j = 0; j < batch.length; j++) {
+                batch[j] = newUser(i + j);
+            }
+            userDao.insertAll(batch);
+        }
+    }
+
+    private void writeResults() throws IOException {
+        File directory = new File(System.getProperty("benchmark.dir", "build/benchmarks"));
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, "data-layer.json")), "UTF-8");
+        try {
+            writer.write("{\"suite\": \"data-layer\", \"timestamp\": " + System.currentTimeMillis()
+                         + ", \"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write("  " + results.get(i) + (i + 1 < results.size() ? ",\n" : "\n"));
+            }
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static User newUser(int index) {
+        User user = new User();
+        user.setFirstName("First" + index);
+        user.setLastName("Last" + index);
+        user.setPhoneNumber(formatNumber(index));
+        return user;
+    }
+
+    private static String formatNumber(int index) {
+        return String.format(Locale.US, "+218 91 %07d", index);
+    }
+}
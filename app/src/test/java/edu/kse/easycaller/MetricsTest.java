@@ -0,0 +1,27 @@
+package edu.kse.easycaller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @Test
+    public void histogram_percentiles() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i <= 90 ? 10 : 5000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(16, histogram.getPercentileMicros(50));
+        assertEquals(16, histogram.getPercentileMicros(90));
+        assertEquals(5000, histogram.getPercentileMicros(99));
+        assertEquals(5000, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void registry_returnsSameMetric() {
+        assertSame(Metrics.counter("test.counter"), Metrics.counter("test.counter"));
+        assertSame(Metrics.histogram("test.histogram"), Metrics.histogram("test.histogram"));
+    }
+}
@@ -0,0 +1,26 @@
+package edu.kse.easycaller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PhoneKeyIndexTest {
+    @Test
+    public void putGetRemove() {
+        PhoneKeyIndex index = new PhoneKeyIndex(4);
+        for (int i = 1; i <= 1000; i++) {
+            index.put(PhoneNumbers.toIndexKey("+218910000" + (1000 + i)), i);
+        }
+        assertEquals(1000, index.size());
+        assertEquals(42, index.get(PhoneNumbers.toIndexKey("+2189100001042")));
+
+        // Removing with another user id keeps the number of the current owner.
+        index.remove(PhoneNumbers.toIndexKey("+2189100001042"), 7);
+        assertEquals(42, index.get(PhoneNumbers.toIndexKey("+2189100001042")));
+
+        index.remove(PhoneNumbers.toIndexKey("+2189100001042"), 42);
+        assertEquals(PhoneKeyIndex.NO_USER, index.get(PhoneNumbers.toIndexKey("+2189100001042")));
+        assertEquals(43, index.get(PhoneNumbers.toIndexKey("+2189100001043")));
+        assertEquals(999, index.size());
+    }
+}
@@ -0,0 +1,108 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that caller lookups by phone number use the phone_key index and, when run with
+ * {@code -Pbenchmark}, stay within a small bound on a 100k rows table.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhoneLookupBenchmarkTest {
+
+    private static final int ROW_COUNT = 100000;
+    private static final int LOOKUP_COUNT = 2000;
+    private static final int BATCH_SIZE = 1000;
+
+    // Upper bound, in microseconds, of the 99th percentile lookup latency.
+    private static final long MAX_P99_MICROS = 5000;
+
+    private AppDatabase database;
+    private UserDao userDao;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+    }
+
+    private void seed() {
+        User[] batch = new User[BATCH_SIZE];
+        for (int i = 0; i < ROW_COUNT; i += BATCH_SIZE) {
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                User user = new User();
+                user.setFirstName("First" + (i + j));
+                user.setLastName("Last" + (i + j));
+                user.setPhoneNumber(formatNumber(i + j));
+                batch[j] = user;
+            }
+            userDao.insertAll(batch);
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void lookup_usesPhoneKeyIndex() {
+        Cursor cursor = database.query(new SimpleSQLiteQuery(
+                "EXPLAIN QUERY PLAN SELECT user.* FROM user JOIN phone_number ON phone_number.user_id = user.uid "
+                + "WHERE phone_number.phone_key = ? LIMIT 1",
+                new Object[]{"+218910000001"}));
+        try {
+            assertTrue(cursor.moveToFirst());
+            String plan = cursor.getString(cursor.getColumnCount() - 1);
+            assertTrue(plan, plan.contains("index_phone_number_phone_key"));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void lookup_boundedLatency() {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+        seed();
+
+        Random random = new Random(42);
+        long[] micros = new long[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            int index = random.nextInt(ROW_COUNT);
+            // Look up the local format of a number stored in international format.
+            String dialed = "0" + formatNumber(index).substring("+218 ".length());
+
+            long start = System.nanoTime();
+            User user = userDao.getByPhoneKey(PhoneNumbers.normalize(dialed));
+            micros[i] = (System.nanoTime() - start) / 1000;
+
+            assertNotNull(dialed, user);
+            assertEquals("First" + index, user.getFirstName());
+        }
+
+        Arrays.sort(micros);
+        long p99 = micros[LOOKUP_COUNT * 99 / 100];
+        assertTrue("p99 " + p99 + "us", p99 < MAX_P99_MICROS);
+    }
+
+    private static String formatNumber(int index) {
+        return String.format(Locale.US, "+218 91 %07d", index);
+    }
+}
@@ -0,0 +1,38 @@
+package edu.kse.easycaller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PhoneNumbersTest {
+    @Test
+    public void normalize_sameNumberDifferentFormats() {
+        assertEquals("+218912345678", PhoneNumbers.normalize("+218 91 234 5678"));
+        assertEquals("+218912345678", PhoneNumbers.normalize("091-234-5678"));
+        assertEquals("+218912345678", PhoneNumbers.normalize("00218912345678"));
+        assertEquals("+218912345678", PhoneNumbers.normalize("912345678"));
+        assertEquals("+218912345678", PhoneNumbers.normalize("218912345678"));
+        assertEquals("+218912345678", PhoneNumbers.normalize("٠٩١٢٣٤٥٦٧٨"));
+    }
+
+    @Test
+    public void normalize_keepsForeignAndShortNumbers() {
+        assertEquals("+441632960000", PhoneNumbers.normalize("+44 1632 960000"));
+        assertEquals("1415", PhoneNumbers.normalize("1415"));
+    }
+
+    @Test
+    public void normalize_withoutDigits() {
+        assertNull(PhoneNumbers.normalize(null));
+        assertNull(PhoneNumbers.normalize("unknown"));
+    }
+
+    @Test
+    public void toIndexKey_distinguishesNumbers() {
+        assertNotEquals(0, PhoneNumbers.toIndexKey("+218912345678"));
+        assertNotEquals(PhoneNumbers.toIndexKey("0123"), PhoneNumbers.toIndexKey("123"));
+        assertNotEquals(PhoneNumbers.toIndexKey("+1415"), PhoneNumbers.toIndexKey("1415"));
+        assertEquals(0, PhoneNumbers.toIndexKey(null));
+        assertEquals(0, PhoneNumbers.toIndexKey("+12345678901234567"));
+    }
+}
@@ -0,0 +1,89 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class PictureStoreTest {
+
+    private AppDatabase database;
+    private File directory;
+    private PictureStore pictureStore;
+
+    @Before
+    public void createStore() {
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .allowMainThreadQueries()
+                       .build();
+        directory = new File(RuntimeEnvironment.application.getFilesDir(), "pictures");
+        pictureStore = new PictureStore(directory, database.userDao(), null);
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void store_deduplicatesIdenticalPictures() throws IOException {
+        File first = pictureStore.storeNow(write(pictureStore.newTempFile(), "picture"));
+        File second = pictureStore.storeNow(write(pictureStore.newTempFile(), "picture"));
+        File other = pictureStore.storeNow(write(pictureStore.newTempFile(), "other picture"));
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void sweep_deletesOnlyOldUnreferencedPictures() throws IOException {
+        File referenced = pictureStore.storeNow(write(pictureStore.newTempFile(), "referenced"));
+        File unreferenced = pictureStore.storeNow(write(pictureStore.newTempFile(), "unreferenced"));
+
+        long now = System.currentTimeMillis();
+        assertEquals(0, pictureStore.sweepNow(Collections.<String>emptyList(), now));
+
+        long later = now + PictureStore.SWEEP_GRACE_MILLIS + 1000;
+        assertEquals(1, pictureStore.sweepNow(Collections.singletonList("file://" + referenced.getAbsolutePath()), later));
+        assertTrue(referenced.exists());
+        assertFalse(unreferenced.exists());
+    }
+
+    @Test
+    public void replace_storesUnderNewContentNameAndUpdatesUsers() throws IOException {
+        File original = pictureStore.storeNow(write(pictureStore.newTempFile(), "original"));
+        User user = new User();
+        user.setImageUri(original.getAbsolutePath());
+        database.userDao().insertAll(user);
+
+        File replaced = pictureStore.replaceNow(original, write(pictureStore.newTempFile(), "encoded"), ".webp");
+
+        assertNotEquals(original.getName(), replaced.getName());
+        assertTrue(replaced.getName().endsWith(".webp"));
+        assertFalse(original.exists());
+        assertEquals(Collections.singletonList(replaced.getAbsolutePath()), database.userDao().getImageUris());
+    }
+
+    private static File write(File file, String content) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(content.getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+}
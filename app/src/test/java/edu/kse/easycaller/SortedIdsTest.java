@@ -0,0 +1,110 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class SortedIdsTest {
+
+    @Test
+    public void fromSortKeys_mapsSectionsToFirstPositions() {
+        SortedIds ids = SortedIds.fromSortKeys(keys(null, "1", "A", "a", "B", "B", "Z", "a"));
+
+        assertArrayEquals(new String[]{"#", "A", "B", "Z"}, ids.getSections());
+        assertEquals(0, ids.getPositionForSection(0));
+        assertEquals(2, ids.getPositionForSection(1));
+        assertEquals(4, ids.getPositionForSection(2));
+        assertEquals(6, ids.getPositionForSection(3));
+
+        assertEquals(0, ids.getSectionForPosition(1));
+        assertEquals(1, ids.getSectionForPosition(3));
+        assertEquals(2, ids.getSectionForPosition(5));
+        // A run apart from the first one of its letter still belongs to it.
+        assertEquals(1, ids.getSectionForPosition(7));
+    }
+
+    @Test
+    public void indexOf_findsPositionsOfUnorderedIds() {
+        SortedIds ids = SortedIds.fromIds(Arrays.asList(42, 7, 1000, 3));
+
+        assertEquals(0, ids.indexOf(42));
+        assertEquals(1, ids.indexOf(7));
+        assertEquals(2, ids.indexOf(1000));
+        assertEquals(3, ids.indexOf(3));
+        assertEquals(-1, ids.indexOf(8));
+        assertEquals(-1, ids.getSectionForPosition(0));
+        assertEquals(0, ids.getSections().length);
+    }
+
+    @Test
+    public void sortQueries_readOrderFromIndexes() {
+        AppDatabase database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                                   .addCallback(AppDatabase.CALLBACK)
+                                   .allowMainThreadQueries()
+                                   .build();
+        try {
+            String[] orders = {"last_name COLLATE NOCASE, first_name COLLATE NOCASE, uid",
+                               "first_name COLLATE NOCASE, last_name COLLATE NOCASE, uid",
+                               "company COLLATE NOCASE, last_name COLLATE NOCASE, first_name COLLATE NOCASE, uid"};
+            for (String order : orders) {
+                Cursor plan = database.query("EXPLAIN QUERY PLAN SELECT uid FROM user WHERE deleted = 0 ORDER BY " + order,
+                                             null);
+                try {
+                    while (plan.moveToNext()) {
+                        String detail = plan.getString(plan.getColumnIndex("detail"));
+                        assertFalse(order + ": " + detail, detail.contains("TEMP B-TREE"));
+                    }
+                } finally {
+                    plan.close();
+                }
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void observeByLastName_ignoresCase() {
+        AppDatabase database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                                   .addCallback(AppDatabase.CALLBACK)
+                                   .allowMainThreadQueries()
+                                   .build();
+        try {
+            String[] lastNames = {"Zed", "adams", "Baker"};
+            for (String lastName : lastNames) {
+                User user = new User();
+                user.setLastName(lastName);
+                database.userDao().insertAll(user);
+            }
+
+            SortedIds ids = SortedIds.fromSortKeys(database.userDao().observeByLastName().blockingFirst());
+            assertArrayEquals(new String[]{"A", "B", "Z"}, ids.getSections());
+            assertEquals("adams", database.userDao().getById(ids.getUid(0)).getLastName());
+            assertEquals("Zed", database.userDao().getById(ids.getUid(2)).getLastName());
+        } finally {
+            database.close();
+        }
+    }
+
+    private static List<UserSortKey> keys(String... initials) {
+        List<UserSortKey> keys = new ArrayList<>(initials.length);
+        for (int i = 0; i < initials.length; i++) {
+            UserSortKey key = new UserSortKey();
+            key.uid = i + 1;
+            key.initial = initials[i];
+            keys.add(key);
+        }
+        return keys;
+    }
+}
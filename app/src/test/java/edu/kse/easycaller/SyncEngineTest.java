@@ -0,0 +1,160 @@
+package edu.kse.easycaller;
+
+import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private AppDatabase database;
+    private UserDao userDao;
+    private StubServer server;
+    private SyncEngine syncEngine;
+
+    /**
+     * In-memory directory keeping the latest version of every user.
+     */
+    private static class StubServer implements SyncTransport {
+
+        private final Map<String, RemoteUser> users = new LinkedHashMap<>();
+        private long version;
+
+        int pushedCount;
+        int pulledCount;
+
+        void put(String remoteId, String firstName, String... numbers) {
+            put(new RemoteUser(remoteId, ++version, firstName, "Last", null, Arrays.asList(numbers)));
+        }
+
+        void delete(String remoteId) {
+            put(RemoteUser.tombstone(remoteId, ++version));
+        }
+
+        private void put(RemoteUser user) {
+            // Keep the map in version order.
+            users.remove(user.remoteId);
+            users.put(user.remoteId, user);
+        }
+
+        @Override
+        public void push(@NonNull List<RemoteUser> changes) {
+            pushedCount += changes.size();
+            for (RemoteUser change : changes) {
+                put(change.deleted ? RemoteUser.tombstone(change.remoteId, ++version)
+                                   : new RemoteUser(change.remoteId, ++version, change.firstName, change.lastName,
+                                                    change.company, change.phoneNumbers));
+            }
+        }
+
+        @NonNull
+        @Override
+        public Batch pull(long sinceVersion, int limit) {
+            List<RemoteUser> changes = new ArrayList<>();
+            boolean hasMore = false;
+            for (RemoteUser user : users.values()) {
+                if (user.version > sinceVersion) {
+                    if (changes.size() == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    changes.add(user);
+                }
+            }
+            pulledCount += changes.size();
+            long nextVersion = changes.isEmpty() ? sinceVersion : changes.get(changes.size() - 1).version;
+            return new Batch(changes, nextVersion, hasMore);
+        }
+    }
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, AppDatabase.class)
+                       .allowMainThreadQueries()
+                       .build();
+        userDao = database.userDao();
+        server = new StubServer();
+        syncEngine = new SyncEngine(database, server, new CallerIdIndex(database));
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void pull_transfersOnlyChanges() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            server.put("remote" + i, "First" + i, "+21891" + (1000000 + i));
+        }
+        assertEquals(1000, syncEngine.sync().pulled);
+        assertEquals(1000, userDao.getCount());
+
+        server.put("remote1", "Renamed", "+218921111111");
+        server.delete("remote2");
+        server.pulledCount = 0;
+        assertEquals(2, syncEngine.sync().pulled);
+        assertEquals(2, server.pulledCount);
+
+        assertEquals(999, userDao.getCount());
+        assertEquals("Renamed", userDao.getByPhoneKey("+218921111111").getFirstName());
+        assertNull(userDao.getByPhoneKey("+218911000001"));
+        assertNull(userDao.getByPhoneKey("+218911000002"));
+
+        // Nothing changed since, nothing moves.
+        assertEquals(0, syncEngine.sync().pulled);
+    }
+
+    @Test
+    public void push_sendsLocalChangesOnceThenPurgesTombstones() throws IOException {
+        User user = new User();
+        user.setFirstName("Local");
+        user.setPhoneNumber("0911234567");
+        userDao.insertAll(user);
+
+        assertEquals(1, syncEngine.sync().pushed);
+        assertEquals(1, server.pushedCount);
+        assertEquals(0, syncEngine.sync().pushed);
+
+        User inserted = userDao.getAll().get(0);
+        userDao.delete(inserted);
+        assertEquals(0, userDao.getCount());
+        assertEquals(1, syncEngine.sync().pushed);
+        assertTrue(server.users.get(inserted.getRemoteId()).deleted);
+        assertTrue(userDao.getForSync(new int[]{inserted.getUid()}).isEmpty());
+    }
+
+    @Test
+    public void pull_doesNotPushPulledChangesBack() throws IOException {
+        server.put("remote", "Directory", "+218911111111");
+        syncEngine.sync();
+
+        assertEquals(Collections.singletonList("Directory"), firstNames(userDao.getAll()));
+        assertEquals(0, syncEngine.sync().pushed);
+        assertEquals(0, server.pushedCount);
+    }
+
+    private static List<String> firstNames(List<User> users) {
+        List<String> names = new ArrayList<>();
+        for (User user : users) {
+            names.add(user.getFirstName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.kse.easycaller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class VCardParserTest {
+    @Test
+    public void next_readsCardsInOrder() throws IOException {
+        VCardParser parser = new VCardParser(new StringReader(
+                "BEGIN:VCARD\r\n"
+                + "VERSION:3.0\r\n"
+                + "N:Ben Saliem;Ayad;;;\r\n"
+                + "FN:Ayad Ben Saliem\r\n"
+                + "ORG:KSE\\, Ltd;Development\r\n"
+                + "item1.TEL;TYPE=CELL:+218 91 234\r\n"
+                + " 5678\r\n"
+                + "TEL;TYPE=WORK:0921111111\r\n"
+                + "END:VCARD\r\n"
+                + "BEGIN:VCARD\r\n"
+                + "VERSION:4.0\r\n"
+                + "FN:Only Formatted\r\n"
+                + "TEL;VALUE=uri:tel:+44-1632-960000\r\n"
+                + "END:VCARD\r\n"));
+
+        UserWithPhoneNumbers first = parser.next();
+        assertEquals("Ayad", first.user.getFirstName());
+        assertEquals("Ben Saliem", first.user.getLastName());
+        assertEquals("KSE, Ltd", first.user.getCompany());
+        assertEquals("+218912345678", first.user.getPhoneKey());
+        assertEquals(2, first.phoneNumbers.size());
+        assertEquals("+218921111111", first.phoneNumbers.get(1).getPhoneKey());
+
+        UserWithPhoneNumbers second = parser.next();
+        assertEquals("Only Formatted", second.user.getFirstName());
+        assertNull(second.user.getLastName());
+        assertEquals("+441632960000", second.user.getPhoneKey());
+
+        assertNull(parser.next());
+    }
+
+    @Test
+    public void next_decodesQuotedPrintable() throws IOException {
+        VCardParser parser = new VCardParser(new StringReader(
+                "BEGIN:VCARD\r\n"
+                + "VERSION:2.1\r\n"
+                + "N;CHARSET=UTF-8;ENCODING=QUOTED-PRINTABLE:=D8=A3=D8=AD=D9=85=D8=AF;=\r\n"
+                + "=D8=B9=D9=84=D9=8A\r\n"
+                + "TEL;CELL:091-000-0000\r\n"
+                + "END:VCARD\r\n"));
+
+        UserWithPhoneNumbers user = parser.next();
+        assertEquals("علي", user.user.getFirstName());
+        assertEquals("أحمد", user.user.getLastName());
+        assertEquals("+218910000000", user.user.getPhoneKey());
+    }
+
+    @Test
+    public void next_ignoresTextOutsideCards() throws IOException {
+        VCardParser parser = new VCardParser(new StringReader("garbage\nTEL:123\n"));
+        assertNull(parser.next());
+    }
+}